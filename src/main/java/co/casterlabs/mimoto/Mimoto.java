@@ -1,8 +1,10 @@
 package co.casterlabs.mimoto;
 
 import java.io.File;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import org.jetbrains.annotations.Nullable;
 import org.jongo.Jongo;
@@ -11,13 +13,38 @@ import com.backblaze.b2.client.B2StorageClient;
 import com.backblaze.b2.client.B2StorageClientFactory;
 import com.mongodb.MongoClient;
 import com.mongodb.MongoClientURI;
+import com.mongodb.ReadPreference;
+import com.mongodb.reactivestreams.client.MongoClients;
 
-import co.casterlabs.apiutil.web.ApiException;
 import co.casterlabs.mimoto.accounts.Account;
+import co.casterlabs.mimoto.accounts.AccountCache;
+import co.casterlabs.mimoto.accounts.AccountShard;
+import co.casterlabs.mimoto.accounts.AccountInvalidationChannel;
+import co.casterlabs.mimoto.accounts.AccountStore;
+import co.casterlabs.mimoto.accounts.EmbeddedAccountStore;
+import co.casterlabs.mimoto.accounts.MongoAccountStore;
+import co.casterlabs.mimoto.accounts.LocalInvalidationChannel;
+import co.casterlabs.mimoto.accounts.PollingInvalidationChannel;
+import co.casterlabs.mimoto.accounts.ShardedAccountStore;
+import co.casterlabs.mimoto.accounts.SignedTokens;
+import co.casterlabs.mimoto.email.EmailCoalescer;
+import co.casterlabs.mimoto.email.EmailOutbox;
+import co.casterlabs.mimoto.email.EmailPriority;
+import co.casterlabs.mimoto.email.EmailTemplates;
+import co.casterlabs.mimoto.email.EmailTransport;
+import co.casterlabs.mimoto.email.MemoryOutboxStore;
+import co.casterlabs.mimoto.email.MongoOutboxStore;
+import co.casterlabs.mimoto.email.OutboxStore;
+import co.casterlabs.mimoto.email.SmtpEmailTransport;
+import co.casterlabs.mimoto.email.ZohoEmailTransport;
 import co.casterlabs.mimoto.preprocess.MimotoPreProcessor;
 import co.casterlabs.mimoto.routes.RouteAccount;
 import co.casterlabs.mimoto.routes.RouteAuthentication;
+import co.casterlabs.mimoto.schema.SchemaBootstrapper;
+import co.casterlabs.mimoto.session.RateLimitSync;
 import co.casterlabs.mimoto.session.SessionUtil;
+import co.casterlabs.mimoto.util.BCryptCalibrator;
+import co.casterlabs.mimoto.util.CryptoUtil;
 import co.casterlabs.mimoto.util.FileUtil;
 import co.casterlabs.mimoto.util.HtmlUtil;
 import co.casterlabs.mimoto.util.Quotes;
@@ -28,7 +55,6 @@ import co.casterlabs.sora.api.PluginImplementation;
 import co.casterlabs.sora.api.SoraPlugin;
 import co.casterlabs.zohoapijava.ZohoAuth;
 import co.casterlabs.zohoapijava.requests.ZohoMailGetUserAccountDetailsRequest;
-import co.casterlabs.zohoapijava.requests.ZohoMailSendEmailRequest;
 import co.casterlabs.zohoapijava.types.ZohoUserAccount;
 import lombok.Getter;
 import lombok.NonNull;
@@ -42,12 +68,18 @@ public class Mimoto extends SoraPlugin {
 
     private Map<String, Jongo> jongoCache = new HashMap<>();
     private MongoClient mongo;
+    private com.mongodb.reactivestreams.client.MongoClient asyncMongo; // For the account store's async methods.
 
-    private String passwordResetEmailTemplate;
-    private String emailVerificationEmailTemplate;
+    private @Getter AccountStore accountStore;
 
-    private ZohoAuth zohoAuth;
-    private ZohoUserAccount zohoAccount;
+    private RateLimitSync rateLimitSync;
+    private AccountInvalidationChannel invalidationChannel;
+
+    private @Getter EmailTemplates emailTemplates;
+
+    private @Getter EmailTransport emailTransport;
+    private @Getter EmailOutbox emailOutbox;
+    private @Getter EmailCoalescer emailCoalescer;
 
     private @Getter B2StorageClient b2;
 
@@ -56,31 +88,118 @@ public class Mimoto extends SoraPlugin {
     public void onInit(Sora sora) {
         instance = this;
 
-        this.passwordResetEmailTemplate = FileUtil.loadResource("passwordreset.html");
-        this.emailVerificationEmailTemplate = FileUtil.loadResource("signup.html");
-
         String configContents = FileUtil.read(new File("plugins/Mimoto/config.json"));
         MimotoConfig config = Rson.DEFAULT.fromJson(configContents, MimotoConfig.class);
 
+        // Load them now so a broken template fails startup instead of the first email.
+        this.emailTemplates = new EmailTemplates(new File(config.getEmailTemplateDirectory()));
+        this.emailTemplates.get("passwordreset.html");
+        this.emailTemplates.get("signup.html");
+
+        if (config.getBcryptCost() > 0) {
+            CryptoUtil.setBcryptCost(Math.max(BCryptCalibrator.MIN_COST, config.getBcryptCost()));
+        } else if (config.getBcryptTargetMillis() > 0) {
+            CryptoUtil.setBcryptCost(BCryptCalibrator.calibrate(config.getBcryptTargetMillis()));
+        }
+
+        SignedTokens.configure(config.getTokenMode(), config.getTokenSigningKeys(), TimeUnit.DAYS.toMillis(config.getTokenLifetimeDays()));
+
         // Connect to Backblaze
         this.b2 = B2StorageClientFactory
             .createDefaultFactory()
             .create(config.getB2Id(), config.getB2Key(), "Mimoto");
 
         // Connect to Mongo
-        this.mongo = new MongoClient(new MongoClientURI(config.getMongoUri()));
+        boolean needsMongo = !config.getAccountStore().equalsIgnoreCase("embedded") ||
+            !config.getAccountInvalidationChannel().equalsIgnoreCase("local");
 
-        SessionUtil.setApiJongo(this.getJongoForDatabase("api"));
+        if (needsMongo || ((config.getMongoUri() != null) && !config.getMongoUri().isEmpty())) {
+            this.mongo = new MongoClient(new MongoClientURI(config.getMongoUri()));
+            SchemaBootstrapper.run(this.mongo);
 
-        // Setup Zoho
-        this.zohoAuth = new ZohoAuth(config.getZohoRefreshToken(), config.getZohoClientId(), config.getZohoClientSecret(), config.getZohoRedirectUri(), config.getZohoScope());
-        this.zohoAccount = new ZohoMailGetUserAccountDetailsRequest(this.zohoAuth).send().get(0);
+            this.rateLimitSync = new RateLimitSync(this.mongo.getDatabase("api").getCollection("ratelimits"));
+            SessionUtil.setRateLimitSync(this.rateLimitSync);
+        }
+
+        ReadPreference readPreference = getAccountReadPreference(config);
+        long pinMillis = TimeUnit.SECONDS.toMillis(config.getAccountReadMaxStalenessSeconds());
+
+        if (config.getAccountStore().equalsIgnoreCase("embedded")) {
+            this.accountStore = new EmbeddedAccountStore(new File(config.getEmbeddedAccountStorePath()));
+        } else if (!config.getAccountShards().isEmpty()) {
+            for (AccountShard shard : config.getAccountShards()) {
+                try (MongoClient shardMongo = new MongoClient(new MongoClientURI(shard.getMongoUri()))) {
+                    SchemaBootstrapper.runForAccountShard(shardMongo, shard.getDatabase());
+                }
+            }
+
+            this.asyncMongo = MongoClients.create(config.getMongoUri());
+            this.accountStore = new ShardedAccountStore(config.getAccountShards(), config.getPreviousAccountShards(), this.mongo.getDatabase("auth"), this.asyncMongo.getDatabase("auth"), readPreference, pinMillis);
+        } else {
+            this.asyncMongo = MongoClients.create(config.getMongoUri());
+            this.accountStore = new MongoAccountStore(this.mongo.getDatabase("auth"), this.asyncMongo.getDatabase("auth"), readPreference, pinMillis);
+        }
+
+        if (config.getAccountInvalidationChannel().equalsIgnoreCase("local")) {
+            this.invalidationChannel = new LocalInvalidationChannel();
+        } else {
+            this.invalidationChannel = new PollingInvalidationChannel(this.mongo.getDatabase("auth").getCollection("accountversions"));
+        }
+
+        // Pin before invalidating, otherwise a reload could still hit a stale replica.
+        this.invalidationChannel.subscribe(this.accountStore::onRemoteWrite);
+        AccountCache.setInvalidationChannel(this.invalidationChannel);
+
+        // Setup email
+        if (config.getEmailTransport().equalsIgnoreCase("smtp")) {
+            this.emailTransport = new SmtpEmailTransport(config.getSmtpHost(), config.getSmtpPort(), config.getSmtpFrom());
+        } else {
+            // We only use ZohoApiJava to look up which account to send from, the sends go through the transport.
+            ZohoAuth zohoAuth = new ZohoAuth(config.getZohoRefreshToken(), config.getZohoClientId(), config.getZohoClientSecret(), config.getZohoRedirectUri(), config.getZohoScope());
+            ZohoUserAccount zohoAccount = new ZohoMailGetUserAccountDetailsRequest(zohoAuth).send().get(0);
+
+            this.emailTransport = new ZohoEmailTransport(
+                config.getZohoAccountsUrl(),
+                config.getZohoMailUrl(),
+                config.getZohoRefreshToken(),
+                config.getZohoClientId(),
+                config.getZohoClientSecret(),
+                zohoAccount.getAccountId(),
+                zohoAccount.getPrimaryEmailAddress()
+            );
+        }
+
+        OutboxStore outboxStore = (this.mongo == null) ? new MemoryOutboxStore() : new MongoOutboxStore(this.mongo.getDatabase("auth").getCollection("emailoutbox"));
+        this.emailOutbox = new EmailOutbox(outboxStore, this.emailTransport, config.getEmailsPerMinute(), config.getEmailBurst());
+
+        this.emailCoalescer = new EmailCoalescer(
+            TimeUnit.SECONDS.toMillis(config.getEmailCoalesceSeconds()),
+            (config.isEmailCoalesceShared() && (this.mongo != null)) ? this.mongo.getDatabase("auth").getCollection("emailcoalesce") : null
+        );
 
         sora.addProvider(this, new RouteAuthentication());
         sora.addProvider(this, new RouteAccount());
         sora.registerPreProcessor(this, MimotoPreProcessor.ID, new MimotoPreProcessor());
     }
 
+    private static ReadPreference getAccountReadPreference(MimotoConfig config) {
+        if (config.getAccountReadPreference().equalsIgnoreCase("primary")) {
+            return ReadPreference.primary();
+        } else {
+            return ReadPreference.valueOf(
+                config.getAccountReadPreference(),
+                Collections.emptyList(),
+                config.getAccountReadMaxStalenessSeconds(),
+                TimeUnit.SECONDS
+            );
+        }
+    }
+
+    /**
+     * @deprecated Jongo sits on the driver's deprecated DB api, use the
+     *             {@link #getAccountStore()} (or the driver directly) instead.
+     */
+    @Deprecated
     @SuppressWarnings("deprecation")
     public Jongo getJongoForDatabase(@NonNull String databaseName) {
         Jongo jongo = this.jongoCache.get(databaseName);
@@ -95,41 +214,62 @@ public class Mimoto extends SoraPlugin {
     }
 
     public void sendEmail(@NonNull String content, @NonNull String subject, @NonNull String email) {
-        try {
-            new ZohoMailSendEmailRequest(this.zohoAuth)
-                .setAccountId(this.zohoAccount.getAccountId())
-                .setContentsAsHtml(content)
-                .setFromAddress(this.zohoAccount.getPrimaryEmailAddress())
-                .setToAddress(email)
-                .setSubject(subject)
-                .send();
-        } catch (ApiException e) {
-            this.getLogger().exception(e);
-        }
+        this.sendEmail(content, subject, email, EmailPriority.NORMAL);
+    }
+
+    /**
+     * Queues the email, this returns as soon as it's in the outbox.
+     */
+    public void sendEmail(@NonNull String content, @NonNull String subject, @NonNull String email, @NonNull EmailPriority priority) {
+        this.emailOutbox.enqueue(email, subject, content, priority);
     }
 
+    @SneakyThrows
     public String formatEmailVerificationEmail(@NonNull Account account, @NonNull String emailVerifyId) {
         Quote quote = Quotes.randomQuote();
+        Map<String, String> values = new HashMap<>();
+
+        values.put("account.name", account.getName());
+        values.put("link", String.format("https://casterlabs.co/account/verify?id=%s", HtmlUtil.encodeURIComponent(emailVerifyId)));
+        values.put("quote", quote.getQuote());
+        values.put("quote.author", quote.getAuthor());
 
-        return this.emailVerificationEmailTemplate
-            .replace("%account.name%", HtmlUtil.escapeHtml(account.getName()))
-            .replace("%link%", String.format("https://casterlabs.co/account/verify?id=%s", HtmlUtil.encodeURIComponent(emailVerifyId)))
-            .replace("%quote%", quote.getQuote())
-            .replace("%quote.author%", quote.getAuthor());
+        return this.emailTemplates.get("signup.html").render(values);
     }
 
+    @SneakyThrows
     public String formatPasswordResetEmail(@NonNull Account account, @NonNull String passwordResetId) {
         Quote quote = Quotes.randomQuote();
+        Map<String, String> values = new HashMap<>();
+
+        values.put("link", String.format("https://casterlabs.co/account/resetpassword?id=%s", HtmlUtil.encodeURIComponent(passwordResetId)));
+        values.put("quote", quote.getQuote());
+        values.put("quote.author", quote.getAuthor());
 
-        return this.passwordResetEmailTemplate
-            .replace("%link%", String.format("https://casterlabs.co/account/resetpassword?id=%s", HtmlUtil.encodeURIComponent(passwordResetId)))
-            .replace("%quote%", quote.getQuote())
-            .replace("%quote.author%", quote.getAuthor());
+        return this.emailTemplates.get("passwordreset.html").render(values);
     }
 
     @Override
     public void onClose() {
-        this.mongo.close();
+        this.emailOutbox.close();
+        this.emailTransport.close();
+        SessionUtil.setRateLimitSync(null);
+
+        if (this.rateLimitSync != null) {
+            this.rateLimitSync.close();
+        }
+
+        this.invalidationChannel.close();
+        this.accountStore.close();
+
+        if (this.mongo != null) {
+            this.mongo.close();
+        }
+
+        if (this.asyncMongo != null) {
+            this.asyncMongo.close();
+        }
+
         this.b2.close();
         this.jongoCache = null;
     }
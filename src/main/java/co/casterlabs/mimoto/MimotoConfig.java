@@ -1,20 +1,60 @@
 package co.casterlabs.mimoto;
 
+import java.util.Collections;
+import java.util.List;
+
+import co.casterlabs.mimoto.accounts.AccountShard;
+import co.casterlabs.mimoto.accounts.SigningKey;
+import co.casterlabs.mimoto.accounts.TokenMode;
 import co.casterlabs.rakurai.json.annotating.JsonClass;
 import lombok.Getter;
 
 @Getter
 @JsonClass(exposeAll = true)
 public class MimotoConfig {
-    private String mongoUri;
+    private String mongoUri; // Optional when using the embedded account store with the local invalidation channel.
+
+    private String accountStore = "mongo"; // "mongo" or "embedded" (single node).
+    private String embeddedAccountStorePath = "plugins/Mimoto/accounts.log";
+
+    private String accountReadPreference = "primary"; // Where reads by account id go, e.g. "nearest" or "secondaryPreferred".
+    private long accountReadMaxStalenessSeconds = 90; // Mongo won't go below 90.
+
+    private List<AccountShard> accountShards = Collections.emptyList(); // Empty to keep accounts in the main database.
+    private List<AccountShard> previousAccountShards = Collections.emptyList(); // Only set while running the ShardRebalancer.
+
+    private String emailTransport = "zoho"; // "zoho" or "smtp" (a local sink, no TLS or auth).
+
+    private String smtpHost = "localhost";
+    private int smtpPort = 1025;
+    private String smtpFrom = "no-reply@casterlabs.co";
 
+    private String zohoAccountsUrl = "https://accounts.zoho.com";
+    private String zohoMailUrl = "https://mail.zoho.com";
     private String zohoScope;
     private String zohoRefreshToken;
     private String zohoClientId;
     private String zohoClientSecret;
     private String zohoRedirectUri;
 
+    private String emailTemplateDirectory = "plugins/Mimoto/templates"; // Files here override the bundled templates and reload on change.
+
+    private double emailsPerMinute = 30; // Per node, keep the sum under the provider's limit.
+    private int emailBurst = 10;
+
+    private long emailCoalesceSeconds = 60; // Repeat verification/reset requests within this reuse the pending email, 0 to disable. Keep it under the 15 minute reset expiry.
+    private boolean emailCoalesceShared = false; // Share the window between nodes through Mongo.
+
     private String b2Id;
     private String b2Key;
 
+    private int bcryptCost = 0; // Shared by every node, set this when running more than one. 0 to calibrate per node instead.
+    private long bcryptTargetMillis = 250; // Only used when bcryptCost is 0, 0 to skip calibration.
+
+    private TokenMode tokenMode = TokenMode.LEGACY;
+    private List<SigningKey> tokenSigningKeys = Collections.emptyList(); // The first key signs new tokens.
+    private long tokenLifetimeDays = 30;
+
+    private String accountInvalidationChannel = "polling"; // "polling" or "local" (single node).
+
 }
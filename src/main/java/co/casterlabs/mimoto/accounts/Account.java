@@ -1,21 +1,33 @@
 package co.casterlabs.mimoto.accounts;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 
 import org.jetbrains.annotations.Nullable;
-import org.jongo.Jongo;
-import org.mindrot.BCrypt;
 
 import co.casterlabs.mimoto.Mimoto;
+import co.casterlabs.mimoto.email.EmailCoalescer;
+import co.casterlabs.mimoto.email.EmailPriority;
 import co.casterlabs.mimoto.util.CryptoUtil;
+import co.casterlabs.mimoto.util.SingleFlight;
 import co.casterlabs.rakurai.json.annotating.JsonField;
+import lombok.AccessLevel;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
 import lombok.NonNull;
+import lombok.Setter;
 import lombok.ToString;
+import xyz.e3ndr.fastloggingframework.logging.FastLogger;
 
 @Data
 @ToString
 public class Account {
+    private static final SingleFlight<String, Account> lookupByIdFlights = new SingleFlight<>();
+    private static final SingleFlight<String, Account> lookupByEmailFlights = new SingleFlight<>();
 
     /* Login */
 
@@ -30,6 +42,8 @@ public class Account {
     @NonNull
     private String passwordHash;
 
+    private long passwordChangedAt = 0; // Unlike the hash, this survives a rehash.
+
     /* Info */
 
     @NonNull
@@ -60,12 +74,47 @@ public class Account {
 
     /* ---------------- */
 
+    // What the database last saw, save() diffs against this so it only has to
+    // $set what actually changed. Null until the account has been persisted.
+    @ToString.Exclude
+    @EqualsAndHashCode.Exclude
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private transient @Nullable Account persisted;
+
     public Account() {} // For Jackson.
 
+    public Account copy() {
+        Account copy = new Account();
+
+        copy.accountId = this.accountId;
+        copy.email = this.email;
+        copy.passwordHash = this.passwordHash;
+        copy.passwordChangedAt = this.passwordChangedAt;
+        copy.name = this.name;
+        copy.emailVerified = this.emailVerified;
+        copy.isBanned = this.isBanned;
+        copy.hasCasterlabsPlus = this.hasCasterlabsPlus;
+        copy.creationTimestamp = this.creationTimestamp;
+        copy.emailVerificationId = this.emailVerificationId;
+        copy.passwordResetRequestId = this.passwordResetRequestId;
+        copy.passwordResetRequestTimestamp = this.passwordResetRequestTimestamp;
+        copy.persisted = this.persisted; // Never mutated, safe to share.
+
+        return copy;
+    }
+
     /* ---------------- */
 
     public void sendEmailVerification() {
         if (!this.emailVerified && !this.isBanned) {
+            EmailCoalescer coalescer = Mimoto.getInstance().getEmailCoalescer();
+
+            // Only coalesce while the token we'd be reusing is still pending.
+            if (!coalescer.tryClaim("verification", this.accountId) && !isNullOrEmpty(this.emailVerificationId)) {
+                return;
+            }
+
             this.emailVerificationId = new String(CryptoUtil.generateSecureRandomKey());
             this.save();
 
@@ -75,13 +124,25 @@ public class Account {
     }
 
     public void initiatePasswordReset() {
+        EmailCoalescer coalescer = Mimoto.getInstance().getEmailCoalescer();
+        boolean hasRecentRequest = !isNullOrEmpty(this.passwordResetRequestId) &&
+            ((System.currentTimeMillis() - this.passwordResetRequestTimestamp) < coalescer.getWindowMillis());
+
+        if (!coalescer.tryClaim("passwordreset", this.accountId) && hasRecentRequest) {
+            return;
+        }
+
         this.passwordResetRequestId = new String(CryptoUtil.generateSecureRandomKey());
         this.passwordResetRequestTimestamp = System.currentTimeMillis();
 
         this.save();
 
         String emailTemplate = Mimoto.getInstance().formatPasswordResetEmail(this, this.accountId + ':' + this.passwordResetRequestId);
-        Mimoto.getInstance().sendEmail(emailTemplate, "Password Reset Request", this.email);
+        Mimoto.getInstance().sendEmail(emailTemplate, "Password Reset Request", this.email, EmailPriority.HIGH);
+    }
+
+    private static boolean isNullOrEmpty(@Nullable String str) {
+        return (str == null) || str.isEmpty();
     }
 
     /**
@@ -110,7 +171,8 @@ public class Account {
             return "RESET_ID_INVALID";
         }
 
-        this.passwordHash = BCrypt.hashpw(newPassword, BCrypt.gensalt());
+        this.passwordHash = CryptoUtil.hashPassword(newPassword);
+        this.passwordChangedAt = System.currentTimeMillis();
         this.passwordResetRequestId = "";
         this.passwordResetRequestTimestamp = 0;
 
@@ -122,12 +184,62 @@ public class Account {
     public boolean tryLogin(String password) {
         if (this.isBanned) {
             return false;
+        } else if (CryptoUtil.checkPassword(password, this.passwordHash)) {
+            // Only ever upgrade. Nodes can disagree on the cost (see bcryptCost in the
+            // config), and a weaker node shouldn't undo a stronger one's work.
+            if (CryptoUtil.getBCryptCost(this.passwordHash) < CryptoUtil.getBcryptCost()) {
+                this.rehashInBackground(password);
+            }
+
+            return true;
         } else {
-            return BCrypt.checkpw(password, this.passwordHash);
+            return false;
         }
     }
 
+    /**
+     * Brings the hash up to the current cost. Legacy tokens are bound to the hash
+     * itself so we only do this once they're no longer accepted, otherwise the
+     * user would get logged out everywhere. That includes MIGRATE, which still
+     * takes the legacy tokens their other devices hold.
+     */
+    private void rehashInBackground(String password) {
+        if (SignedTokens.getMode() != TokenMode.SIGNED) {
+            return;
+        }
+
+        String accountId = this.accountId;
+        String oldHash = this.passwordHash;
+
+        CompletableFuture<String> future = CryptoUtil.hashPasswordInBackground(password);
+
+        if (future == null) {
+            return; // Too busy, we'll get them next time.
+        }
+
+        future
+            .thenCompose((newHash) -> {
+                return lookupAccountByIdAsync(accountId).thenCompose((account) -> {
+                    // Make sure the password didn't change while we were busy hashing.
+                    if ((account != null) && account.passwordHash.equals(oldHash)) {
+                        account.passwordHash = newHash;
+                        return account.saveAsync();
+                    } else {
+                        return CompletableFuture.completedFuture(null);
+                    }
+                });
+            })
+            .exceptionally((t) -> {
+                FastLogger.logException(t);
+                return null;
+            });
+    }
+
     public String issueToken() {
+        if (SignedTokens.getMode() != TokenMode.LEGACY) {
+            return SignedTokens.issue(this);
+        }
+
         // We encrypt the password has with the account secret.
         // If the user changes their password, the decryption will fail, and because the
         // underlying algorithm is based on HMAC it'll always be unique. I know, it
@@ -139,30 +251,117 @@ public class Account {
     }
 
     public boolean isTokenValid(String token) {
-        if (this.isBanned) {
-            return false;
+        return this.toPrincipal().isTokenValid(token);
+    }
+
+    /**
+     * @param claims the already verified claims of a signed token.
+     */
+    public boolean isTokenValid(@Nullable TokenClaims claims) {
+        return this.toPrincipal().isTokenValid(claims);
+    }
+
+    public AuthPrincipal toPrincipal() {
+        return AuthPrincipal.of(this);
+    }
+
+    public void save() {
+        AccountStore store = Mimoto.getInstance().getAccountStore();
+        Account snapshot = this.snapshot();
+        Map<String, Object> dirty = this.prepareSave();
+
+        if (dirty == null) {
+            store.upsert(this);
+        } else if (dirty.isEmpty()) {
+            return;
         } else {
-            String[] split = token.split(":", 2);
+            store.update(this.accountId, dirty);
+        }
 
-            String id = split[0];
-            String challenge = split[1];
+        this.onSaved(snapshot);
+    }
 
-            if (!id.equals(this.accountId)) {
-                return false;
-            }
+    public CompletableFuture<Void> saveAsync() {
+        AccountStore store = Mimoto.getInstance().getAccountStore();
+        Account snapshot = this.snapshot(); // Whatever we're writing, not whatever it is once the write is done.
+        Map<String, Object> dirty = this.prepareSave();
+        CompletableFuture<Void> write;
 
-            return CryptoUtil.decryptCompare(challenge, this.passwordHash);
+        if (dirty == null) {
+            write = store.upsertAsync(this);
+        } else if (dirty.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        } else {
+            write = store.updateAsync(this.accountId, dirty);
         }
+
+        return write.thenRun(() -> this.onSaved(snapshot));
     }
 
-    public void save() {
-        Jongo jongo = Mimoto.getInstance().getJongoForDatabase("auth");
+    /**
+     * @return the fields to update, or null if the whole account has to be
+     *         written.
+     */
+    private @Nullable Map<String, Object> prepareSave() {
+        if (this.persisted == null) {
+            TokenCache.invalidate(this.accountId, this.passwordHash, this.isBanned);
+            return null;
+        }
+
+        Map<String, Object> dirty = this.getDirtyFields();
+
+        if (dirty.containsKey("passwordHash") || dirty.containsKey("isBanned")) {
+            TokenCache.invalidate(this.accountId, this.passwordHash, this.isBanned);
+        }
+
+        return dirty;
+    }
+
+    private void onSaved(Account snapshot) {
+        this.persisted = snapshot;
+        AccountCache.onSaved(snapshot);
+    }
+
+    /**
+     * @return the fields that differ from what was last persisted, keyed by their
+     *         name in Mongo.
+     */
+    private Map<String, Object> getDirtyFields() {
+        Map<String, Object> dirty = new LinkedHashMap<>();
+        Account p = this.persisted;
+
+        // accountId, email and creationTimestamp can't be changed.
+        putIfChanged(dirty, "passwordHash", this.passwordHash, p.passwordHash);
+        putIfChanged(dirty, "passwordChangedAt", this.passwordChangedAt, p.passwordChangedAt);
+        putIfChanged(dirty, "name", this.name, p.name);
+        putIfChanged(dirty, "emailVerified", this.emailVerified, p.emailVerified);
+        putIfChanged(dirty, "isBanned", this.isBanned, p.isBanned);
+        putIfChanged(dirty, "hasCasterlabsPlus", this.hasCasterlabsPlus, p.hasCasterlabsPlus);
+        putIfChanged(dirty, "emailVerificationId", this.emailVerificationId, p.emailVerificationId);
+        putIfChanged(dirty, "passwordResetRequestId", this.passwordResetRequestId, p.passwordResetRequestId);
+        putIfChanged(dirty, "passwordResetRequestTimestamp", this.passwordResetRequestTimestamp, p.passwordResetRequestTimestamp);
+
+        return dirty;
+    }
 
-        jongo
-            .getCollection("accounts")
-            .update("{ accountId: # }", this.accountId)
-            .upsert()
-            .with(this);
+    private static void putIfChanged(Map<String, Object> dirty, String field, Object value, Object persistedValue) {
+        if (!Objects.equals(value, persistedValue)) {
+            dirty.put(field, value);
+        }
+    }
+
+    /**
+     * Called by the {@link AccountStore} after loading the account.
+     */
+    void markPersisted() {
+        this.persisted = this.snapshot();
+    }
+
+    private Account snapshot() {
+        Account snapshot = this.copy();
+
+        snapshot.persisted = null;
+        return snapshot;
     }
 
     /**
@@ -174,8 +373,9 @@ public class Account {
         acc.accountId = new String(CryptoUtil.generateRandomId());
         acc.email = email.toLowerCase();
         acc.name = name;
-        acc.passwordHash = BCrypt.hashpw(password, BCrypt.gensalt());
+        acc.passwordHash = CryptoUtil.hashPassword(password);
         acc.creationTimestamp = System.currentTimeMillis();
+        acc.passwordChangedAt = acc.creationTimestamp;
 
         acc.sendEmailVerification();
         acc.save();
@@ -184,24 +384,109 @@ public class Account {
     }
 
     public static @Nullable Account lookupAccountById(@NonNull String id) {
-        Jongo jongo = Mimoto.getInstance().getJongoForDatabase("auth");
+        Account cached = AccountCache.getById(id);
+
+        if (cached != null) {
+            return cached;
+        }
+
+        Account account = lookupByIdFlights.run(id, () -> {
+            long loadStartedAt = AccountCache.startLoad();
+            Account loaded = Mimoto.getInstance().getAccountStore().findById(id);
 
-        return jongo
-            .getCollection("accounts")
-            .findOne("{ accountId: # }", id)
-            .as(Account.class);
+            if (loaded != null) {
+                AccountCache.putLoaded(loaded, loadStartedAt);
+            }
+            return loaded;
+        });
+
+        return (account == null) ? null : account.copy();
     }
 
     public static @Nullable Account lookupAccountByEmail(@NonNull String email) {
-        Jongo jongo = Mimoto.getInstance().getJongoForDatabase("auth");
+        String lowerEmail = email.toLowerCase();
+
+        Account cached = AccountCache.getByEmail(lowerEmail);
+
+        if (cached != null) {
+            return cached;
+        }
+
+        Account account = lookupByEmailFlights.run(lowerEmail, () -> {
+            long loadStartedAt = AccountCache.startLoad();
+            Account loaded = Mimoto.getInstance().getAccountStore().findByEmail(lowerEmail);
+
+            if (loaded != null) {
+                AccountCache.putLoaded(loaded, loadStartedAt);
+            }
+            return loaded;
+        });
+
+        return (account == null) ? null : account.copy();
+    }
+
+    public static CompletableFuture<Account> lookupAccountByIdAsync(@NonNull String id) {
+        Account cached = AccountCache.getById(id);
+
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
 
-        return jongo
-            .getCollection("accounts")
-            .findOne("{ email: # }", email.toLowerCase())
-            .as(Account.class);
+        return lookupByIdFlights
+            .runAsync(id, () -> {
+                long loadStartedAt = AccountCache.startLoad();
+
+                return Mimoto.getInstance().getAccountStore()
+                    .findByIdAsync(id)
+                    .thenApply((loaded) -> {
+                        if (loaded != null) {
+                            AccountCache.putLoaded(loaded, loadStartedAt);
+                        }
+                        return loaded;
+                    });
+            })
+            // Everyone shares the loaded account, so they each get their own copy.
+            .thenApply((account) -> (account == null) ? null : account.copy());
     }
 
-    public static String getAccountIdFromToken(String token) {
+    public static CompletableFuture<Account> lookupAccountByEmailAsync(@NonNull String email) {
+        String lowerEmail = email.toLowerCase();
+
+        Account cached = AccountCache.getByEmail(lowerEmail);
+
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+
+        return lookupByEmailFlights
+            .runAsync(lowerEmail, () -> {
+                long loadStartedAt = AccountCache.startLoad();
+
+                return Mimoto.getInstance().getAccountStore()
+                    .findByEmailAsync(lowerEmail)
+                    .thenApply((loaded) -> {
+                        if (loaded != null) {
+                            AccountCache.putLoaded(loaded, loadStartedAt);
+                        }
+                        return loaded;
+                    });
+            })
+            // Everyone shares the loaded account, so they each get their own copy.
+            .thenApply((account) -> (account == null) ? null : account.copy());
+    }
+
+    /**
+     * Note that this does NOT validate the token.
+     * 
+     * @return the account id, or null if the token is malformed.
+     */
+    public static @Nullable String getAccountIdFromToken(String token) {
+        if (SignedTokens.isSignedToken(token)) {
+            TokenClaims claims = SignedTokens.verify(token);
+
+            return (claims == null) ? null : claims.getAccountId();
+        }
+
         String[] split = token.split(":", 2);
 
         String id = split[0];
@@ -0,0 +1,190 @@
+package co.casterlabs.mimoto.accounts;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.jetbrains.annotations.Nullable;
+
+import co.casterlabs.mimoto.util.ExpiringCache;
+import lombok.NonNull;
+
+/**
+ * An in-process cache of accounts, indexed by both id and email. Accounts are
+ * copied on the way in and out, so callers are free to mutate what they get.
+ */
+public class AccountCache {
+    private static final int MAX_ACCOUNTS = 20_000;
+    private static final long TTL = TimeUnit.MINUTES.toMillis(5);
+
+    private static final ExpiringCache<String, Account> byId = new ExpiringCache<>(MAX_ACCOUNTS, TTL);
+    private static final ExpiringCache<String, String> byEmail = new ExpiringCache<>(MAX_ACCOUNTS, TTL);
+
+    // Principals are immutable, so these don't need to be copied.
+    private static final ExpiringCache<String, AuthPrincipal> principals = new ExpiringCache<>(MAX_ACCOUNTS * 5, TTL);
+
+    private static final LongAdder invalidations = new LongAdder();
+
+    // When each account was last written or invalidated, striped by id. A load
+    // that started before then doesn't get cached, it might've read the old
+    // document. Striping keeps one busy account from stalling everyone's loads.
+    private static final int STAMP_STRIPES = 4096; // Must be a power of two.
+    private static final AtomicLongArray invalidatedAt = new AtomicLongArray(STAMP_STRIPES);
+
+    private static AccountInvalidationChannel channel = new LocalInvalidationChannel();
+
+    public static synchronized void setInvalidationChannel(@NonNull AccountInvalidationChannel channel) {
+        if (AccountCache.channel == channel) {
+            return;
+        }
+
+        AccountCache.channel = channel;
+
+        // Channels can't unsubscribe, so a replaced channel just stops being heard.
+        channel.subscribe((accountId) -> {
+            if (AccountCache.channel == channel) {
+                invalidate(accountId);
+            }
+        });
+    }
+
+    public static @Nullable Account getById(@NonNull String accountId) {
+        Account account = byId.get(accountId);
+
+        return (account == null) ? null : account.copy();
+    }
+
+    public static @Nullable Account getByEmail(@NonNull String email) {
+        String accountId = byEmail.get(email);
+
+        if (accountId == null) {
+            return null;
+        }
+
+        Account account = byId.get(accountId);
+
+        if ((account == null) || !account.getEmail().equals(email)) {
+            return null;
+        } else {
+            return account.copy();
+        }
+    }
+
+    public static @Nullable AuthPrincipal getPrincipalById(@NonNull String accountId) {
+        AuthPrincipal principal = principals.get(accountId);
+
+        if (principal != null) {
+            return principal;
+        }
+
+        // We might have the full account lying around anyways.
+        Account account = byId.get(accountId);
+
+        if (account == null) {
+            return null;
+        } else {
+            principal = account.toPrincipal();
+            principals.put(accountId, principal);
+            return principal;
+        }
+    }
+
+    /**
+     * Grab this before loading from the database, and pass it to
+     * {@link #putLoaded(Account, long)} afterwards. We check against the loaded
+     * account's id, so this works for loads by email too.
+     */
+    public static long startLoad() {
+        return System.nanoTime();
+    }
+
+    public static void putLoaded(@NonNull Account account, long loadStartedAt) {
+        if (isFresh(account.getAccountId(), loadStartedAt)) {
+            put(account);
+        }
+    }
+
+    public static void putLoadedPrincipal(@NonNull AuthPrincipal principal, long loadStartedAt) {
+        if (isFresh(principal.getAccountId(), loadStartedAt)) {
+            principals.put(principal.getAccountId(), principal);
+        }
+    }
+
+    private static boolean isFresh(String accountId, long loadStartedAt) {
+        return (invalidatedAt.get(stampFor(accountId)) - loadStartedAt) < 0;
+    }
+
+    private static void stamp(String accountId) {
+        long now = System.nanoTime();
+
+        invalidatedAt.accumulateAndGet(stampFor(accountId), now, (a, b) -> ((b - a) > 0) ? b : a);
+    }
+
+    private static int stampFor(String accountId) {
+        int hash = accountId.hashCode();
+
+        hash ^= (hash >>> 16);
+
+        return hash & (STAMP_STRIPES - 1);
+    }
+
+    /**
+     * Write-through, called after the account has been saved.
+     */
+    public static void onSaved(@NonNull Account account) {
+        stamp(account.getAccountId());
+        put(account);
+        channel.publish(account.getAccountId());
+    }
+
+    public static void invalidate(@NonNull String accountId) {
+        stamp(accountId);
+        invalidations.increment();
+
+        principals.remove(accountId);
+        Account account = byId.remove(accountId);
+
+        if (account != null) {
+            byEmail.remove(account.getEmail());
+        }
+    }
+
+    private static void put(Account account) {
+        byId.put(account.getAccountId(), account.copy());
+        byEmail.put(account.getEmail(), account.getAccountId());
+        principals.put(account.getAccountId(), account.toPrincipal());
+    }
+
+    public static long getHits() {
+        return byId.getHits();
+    }
+
+    public static long getMisses() {
+        return byId.getMisses();
+    }
+
+    public static long getEvictions() {
+        return byId.getEvictions();
+    }
+
+    public static long getInvalidations() {
+        return invalidations.sum();
+    }
+
+    public static int size() {
+        return byId.size();
+    }
+
+    public static long getPrincipalHits() {
+        return principals.getHits();
+    }
+
+    public static long getPrincipalMisses() {
+        return principals.getMisses();
+    }
+
+    public static int principalsSize() {
+        return principals.size();
+    }
+
+}
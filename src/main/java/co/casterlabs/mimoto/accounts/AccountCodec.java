@@ -0,0 +1,125 @@
+package co.casterlabs.mimoto.accounts;
+
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Reads and writes accounts straight to/from BSON, no reflection involved. The
+ * field names match what Jongo used to write, so old documents decode just
+ * fine. Unknown fields (like _id) are skipped.
+ */
+public class AccountCodec implements Codec<Account> {
+
+    @Override
+    public void encode(BsonWriter writer, Account account, EncoderContext encoderContext) {
+        writer.writeStartDocument();
+
+        writeString(writer, "accountId", account.getAccountId());
+        writeString(writer, "email", account.getEmail());
+        writeString(writer, "passwordHash", account.getPasswordHash());
+        writer.writeInt64("passwordChangedAt", account.getPasswordChangedAt());
+        writeString(writer, "name", account.getName());
+        writer.writeBoolean("emailVerified", account.isEmailVerified());
+        writer.writeBoolean("isBanned", account.isBanned());
+        writer.writeBoolean("hasCasterlabsPlus", account.isHasCasterlabsPlus());
+        writer.writeInt64("creationTimestamp", account.getCreationTimestamp());
+        writeString(writer, "emailVerificationId", account.getEmailVerificationId());
+        writeString(writer, "passwordResetRequestId", account.getPasswordResetRequestId());
+        writer.writeInt64("passwordResetRequestTimestamp", account.getPasswordResetRequestTimestamp());
+
+        writer.writeEndDocument();
+    }
+
+    @Override
+    public Account decode(BsonReader reader, DecoderContext decoderContext) {
+        Account account = new Account();
+
+        reader.readStartDocument();
+
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            switch (reader.readName()) {
+                // @formatter:off
+                case "accountId":                     account.setAccountId(readString(reader));                     break;
+                case "email":                         account.setEmail(readString(reader));                         break;
+                case "passwordHash":                  account.setPasswordHash(readString(reader));                  break;
+                case "passwordChangedAt":             account.setPasswordChangedAt(readLong(reader));               break;
+                case "name":                          account.setName(readString(reader));                          break;
+                case "emailVerified":                 account.setEmailVerified(readBoolean(reader));                break;
+                case "isBanned":                      account.setBanned(readBoolean(reader));                       break;
+                case "hasCasterlabsPlus":             account.setHasCasterlabsPlus(readBoolean(reader));            break;
+                case "creationTimestamp":             account.setCreationTimestamp(readLong(reader));               break;
+                case "emailVerificationId":           account.setEmailVerificationId(readString(reader));           break;
+                case "passwordResetRequestId":        account.setPasswordResetRequestId(readString(reader));        break;
+                case "passwordResetRequestTimestamp": account.setPasswordResetRequestTimestamp(readLong(reader));   break;
+                default:                              reader.skipValue();                                           break;
+                // @formatter:on
+            }
+        }
+
+        reader.readEndDocument();
+
+        return account;
+    }
+
+    @Override
+    public Class<Account> getEncoderClass() {
+        return Account.class;
+    }
+
+    /* ---------------- */
+
+    static void writeString(BsonWriter writer, String name, @Nullable String value) {
+        if (value == null) {
+            writer.writeNull(name);
+        } else {
+            writer.writeString(name, value);
+        }
+    }
+
+    static @Nullable String readString(BsonReader reader) {
+        if (reader.getCurrentBsonType() == BsonType.NULL) {
+            reader.readNull();
+            return null;
+        } else {
+            return reader.readString();
+        }
+    }
+
+    /**
+     * Jackson wrote whichever number type fit, so accept all of them.
+     */
+    static long readLong(BsonReader reader) {
+        switch (reader.getCurrentBsonType()) {
+            case INT32:
+                return reader.readInt32();
+
+            case INT64:
+                return reader.readInt64();
+
+            case DOUBLE:
+                return (long) reader.readDouble();
+
+            case NULL:
+                reader.readNull();
+                return 0;
+
+            default:
+                throw new IllegalStateException("Expected a number but got " + reader.getCurrentBsonType());
+        }
+    }
+
+    static boolean readBoolean(BsonReader reader) {
+        if (reader.getCurrentBsonType() == BsonType.NULL) {
+            reader.readNull();
+            return false;
+        } else {
+            return reader.readBoolean();
+        }
+    }
+
+}
@@ -0,0 +1,25 @@
+package co.casterlabs.mimoto.accounts;
+
+import java.io.Closeable;
+import java.util.function.Consumer;
+
+import lombok.NonNull;
+
+/**
+ * Tells the other Mimoto nodes that an account changed, so they can drop it from
+ * their {@link AccountCache}.
+ */
+public interface AccountInvalidationChannel extends Closeable {
+
+    public void publish(@NonNull String accountId);
+
+    /**
+     * @param listener called with the id of every account changed by <b>another</b>
+     *                 node.
+     */
+    public void subscribe(@NonNull Consumer<String> listener);
+
+    @Override
+    default void close() {}
+
+}
@@ -0,0 +1,24 @@
+package co.casterlabs.mimoto.accounts;
+
+import co.casterlabs.rakurai.json.annotating.JsonClass;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+@Getter
+@AllArgsConstructor
+@JsonClass(exposeAll = true)
+public class AccountShard {
+    /**
+     * Accounts are placed by this name, so it must never change (unlike the uri).
+     */
+    private String name;
+
+    @ToString.Exclude
+    private String mongoUri;
+
+    private String database = "auth";
+
+    public AccountShard() {}
+
+}
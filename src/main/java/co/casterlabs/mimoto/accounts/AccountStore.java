@@ -0,0 +1,92 @@
+package co.casterlabs.mimoto.accounts;
+
+import java.io.Closeable;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+import org.jetbrains.annotations.Nullable;
+
+import lombok.NonNull;
+
+/**
+ * Where accounts live. Implementations must call
+ * {@link Account#markPersisted()} on every account they hand out, and must
+ * reject an upsert that would give two accounts the same email.
+ * 
+ * Every operation comes in a blocking and an async flavor. Stores that are
+ * fast enough to not care (like the embedded one) can just implement the
+ * blocking ones, the async ones default to running them inline.
+ */
+public interface AccountStore extends Closeable {
+
+    public @Nullable Account findById(@NonNull String accountId);
+
+    /**
+     * @param email must already be lowercase.
+     */
+    public @Nullable Account findByEmail(@NonNull String email);
+
+    public @Nullable AuthPrincipal findPrincipalById(@NonNull String accountId);
+
+    /**
+     * Writes the whole account, creating it if needed.
+     */
+    public void upsert(@NonNull Account account);
+
+    /**
+     * Sets just the given fields (keyed by their codec name) on an existing
+     * account.
+     */
+    public void update(@NonNull String accountId, @NonNull Map<String, Object> fields);
+
+    /* ---------------- */
+
+    default CompletableFuture<Account> findByIdAsync(@NonNull String accountId) {
+        return inline(() -> this.findById(accountId));
+    }
+
+    default CompletableFuture<Account> findByEmailAsync(@NonNull String email) {
+        return inline(() -> this.findByEmail(email));
+    }
+
+    default CompletableFuture<AuthPrincipal> findPrincipalByIdAsync(@NonNull String accountId) {
+        return inline(() -> this.findPrincipalById(accountId));
+    }
+
+    default CompletableFuture<Void> upsertAsync(@NonNull Account account) {
+        return inline(() -> {
+            this.upsert(account);
+            return null;
+        });
+    }
+
+    default CompletableFuture<Void> updateAsync(@NonNull String accountId, @NonNull Map<String, Object> fields) {
+        return inline(() -> {
+            this.update(accountId, fields);
+            return null;
+        });
+    }
+
+    /**
+     * Called when another node saved the account, stores that read from replicas
+     * should send this account's reads to the primary for a while.
+     */
+    default void onRemoteWrite(@NonNull String accountId) {}
+
+    @Override
+    default void close() {}
+
+    static <T> CompletableFuture<T> inline(Supplier<T> operation) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+
+        try {
+            future.complete(operation.get());
+        } catch (Throwable t) {
+            future.completeExceptionally(t);
+        }
+
+        return future;
+    }
+
+}
@@ -0,0 +1,127 @@
+package co.casterlabs.mimoto.accounts;
+
+import java.util.concurrent.CompletableFuture;
+
+import org.jetbrains.annotations.Nullable;
+
+import co.casterlabs.mimoto.Mimoto;
+import co.casterlabs.mimoto.util.CryptoUtil;
+import co.casterlabs.mimoto.util.SingleFlight;
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.ToString;
+
+/**
+ * Just enough of an account to authorize a request: who it is, whether their
+ * token is still good and whether they're allowed in. It's immutable so it can
+ * be cached and shared without copying, and it's loaded with a projection so we
+ * don't drag the whole account over the wire on every request. Use
+ * {@link Account#lookupAccountById(String)} if you need the rest.
+ */
+@Getter
+@ToString(exclude = "passwordHash")
+@AllArgsConstructor(access = AccessLevel.PACKAGE)
+public class AuthPrincipal {
+    private static final SingleFlight<String, AuthPrincipal> lookupFlights = new SingleFlight<>();
+
+    private final String accountId;
+    private final String passwordHash;
+    private final long passwordChangedAt;
+    private final boolean emailVerified;
+    private final boolean isBanned;
+
+    static AuthPrincipal of(@NonNull Account account) {
+        return new AuthPrincipal(
+            account.getAccountId(),
+            account.getPasswordHash(),
+            account.getPasswordChangedAt(),
+            account.isEmailVerified(),
+            account.isBanned()
+        );
+    }
+
+    public boolean isTokenValid(@NonNull String token) {
+        if (this.isBanned) {
+            return false;
+        } else if (SignedTokens.isSignedToken(token)) {
+            return this.isTokenValid(SignedTokens.verify(token));
+        } else if (SignedTokens.getMode() == TokenMode.SIGNED) {
+            return false; // Legacy tokens are no longer accepted.
+        } else {
+            String[] split = token.split(":", 2);
+
+            if (split.length != 2) {
+                return false;
+            }
+
+            String id = split[0];
+            String challenge = split[1];
+
+            if (!id.equals(this.accountId)) {
+                return false;
+            }
+
+            return TokenCache.verify(token, this.accountId, this.passwordHash, () -> {
+                try {
+                    return CryptoUtil.decryptCompare(challenge, this.passwordHash);
+                } catch (IllegalArgumentException e) {
+                    return false; // Garbage base64 or salt.
+                }
+            });
+        }
+    }
+
+    /**
+     * @param claims the already verified claims of a signed token.
+     */
+    public boolean isTokenValid(@Nullable TokenClaims claims) {
+        if (this.isBanned || (claims == null)) {
+            return false;
+        } else {
+            return claims.getAccountId().equals(this.accountId) &&
+                (claims.getCredentialVersion() == this.passwordChangedAt);
+        }
+    }
+
+    public static @Nullable AuthPrincipal lookupById(@NonNull String accountId) {
+        AuthPrincipal cached = AccountCache.getPrincipalById(accountId);
+
+        if (cached != null) {
+            return cached;
+        }
+
+        return lookupFlights.run(accountId, () -> {
+            long loadStartedAt = AccountCache.startLoad();
+            AuthPrincipal loaded = Mimoto.getInstance().getAccountStore().findPrincipalById(accountId);
+
+            if (loaded != null) {
+                AccountCache.putLoadedPrincipal(loaded, loadStartedAt);
+            }
+            return loaded;
+        });
+    }
+
+    public static CompletableFuture<AuthPrincipal> lookupByIdAsync(@NonNull String accountId) {
+        AuthPrincipal cached = AccountCache.getPrincipalById(accountId);
+
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+
+        return lookupFlights.runAsync(accountId, () -> {
+            long loadStartedAt = AccountCache.startLoad();
+
+            return Mimoto.getInstance().getAccountStore()
+                .findPrincipalByIdAsync(accountId)
+                .thenApply((loaded) -> {
+                    if (loaded != null) {
+                        AccountCache.putLoadedPrincipal(loaded, loadStartedAt);
+                    }
+                    return loaded;
+                });
+        });
+    }
+
+}
@@ -0,0 +1,61 @@
+package co.casterlabs.mimoto.accounts;
+
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+
+/**
+ * Decodes the projection from {@link MongoAccountStore#PRINCIPAL_PROJECTION}.
+ */
+public class AuthPrincipalCodec implements Codec<AuthPrincipal> {
+
+    @Override
+    public void encode(BsonWriter writer, AuthPrincipal principal, EncoderContext encoderContext) {
+        writer.writeStartDocument();
+
+        AccountCodec.writeString(writer, "accountId", principal.getAccountId());
+        AccountCodec.writeString(writer, "passwordHash", principal.getPasswordHash());
+        writer.writeInt64("passwordChangedAt", principal.getPasswordChangedAt());
+        writer.writeBoolean("emailVerified", principal.isEmailVerified());
+        writer.writeBoolean("isBanned", principal.isBanned());
+
+        writer.writeEndDocument();
+    }
+
+    @Override
+    public AuthPrincipal decode(BsonReader reader, DecoderContext decoderContext) {
+        String accountId = null;
+        String passwordHash = null;
+        long passwordChangedAt = 0;
+        boolean emailVerified = false;
+        boolean isBanned = false;
+
+        reader.readStartDocument();
+
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            switch (reader.readName()) {
+                // @formatter:off
+                case "accountId":         accountId = AccountCodec.readString(reader);          break;
+                case "passwordHash":      passwordHash = AccountCodec.readString(reader);       break;
+                case "passwordChangedAt": passwordChangedAt = AccountCodec.readLong(reader);    break;
+                case "emailVerified":     emailVerified = AccountCodec.readBoolean(reader);     break;
+                case "isBanned":          isBanned = AccountCodec.readBoolean(reader);          break;
+                default:                  reader.skipValue();                                   break;
+                // @formatter:on
+            }
+        }
+
+        reader.readEndDocument();
+
+        return new AuthPrincipal(accountId, passwordHash, passwordChangedAt, emailVerified, isBanned);
+    }
+
+    @Override
+    public Class<AuthPrincipal> getEncoderClass() {
+        return AuthPrincipal.class;
+    }
+
+}
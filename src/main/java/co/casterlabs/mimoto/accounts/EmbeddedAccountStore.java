@@ -0,0 +1,416 @@
+package co.casterlabs.mimoto.accounts;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+import org.bson.BsonBinaryReader;
+import org.bson.BsonBinaryWriter;
+import org.bson.Document;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.DocumentCodec;
+import org.bson.codecs.EncoderContext;
+import org.bson.io.BasicOutputBuffer;
+import org.jetbrains.annotations.Nullable;
+
+import lombok.NonNull;
+import xyz.e3ndr.fastloggingframework.logging.FastLogger;
+import xyz.e3ndr.fastloggingframework.logging.LogLevel;
+
+/**
+ * Stores accounts in a single memory-mapped, append-only file, for single node
+ * deployments that don't want to run Mongo. Every write appends the full
+ * account as a record, and in-memory indexes point at each account's latest
+ * record. Stale records get dropped by a periodic compaction.
+ * 
+ * <pre>
+ * record := [int length][int crc32][bson account]
+ * </pre>
+ * 
+ * A length of 0 marks the end of the log. On startup the log is replayed up to
+ * the first record that's truncated or fails its checksum, anything after that
+ * was a torn write and gets overwritten.
+ */
+public class EmbeddedAccountStore implements AccountStore {
+    private static final int HEADER_SIZE = 8;
+    private static final int MIN_CAPACITY = 1024 * 1024;
+
+    private static final long FLUSH_INTERVAL = TimeUnit.SECONDS.toMillis(1);
+    private static final long COMPACTION_INTERVAL = TimeUnit.MINUTES.toMillis(5);
+    private static final int COMPACTION_MIN_GARBAGE = 4 * 1024 * 1024;
+
+    private static final AccountCodec ACCOUNT_CODEC = new AccountCodec();
+    private static final DocumentCodec DOCUMENT_CODEC = new DocumentCodec();
+
+    private final File file;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // Guarded by the lock.
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private int writePosition;
+    private long garbageBytes;
+    private boolean dirty;
+
+    private final Map<String, Integer> byId = new HashMap<>();
+    private final Map<String, String> byEmail = new HashMap<>();
+    private final Map<String, String> emails = new HashMap<>(); // id -> email, so a changed email can be unindexed.
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor((r) -> {
+        Thread t = new Thread(r, "Mimoto - EmbeddedAccountStore");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public EmbeddedAccountStore(@NonNull File file) throws IOException {
+        this.file = file;
+
+        if (file.getParentFile() != null) {
+            file.getParentFile().mkdirs();
+        }
+
+        this.open();
+        this.replay();
+
+        FastLogger.logStatic(LogLevel.INFO, "Loaded %d accounts from %s (%d bytes, %d of them garbage).", this.byId.size(), file, this.writePosition, this.garbageBytes);
+
+        this.executor.scheduleWithFixedDelay(() -> {
+            try {
+                this.flush();
+            } catch (Throwable t) {
+                FastLogger.logException(t);
+            }
+        }, FLUSH_INTERVAL, FLUSH_INTERVAL, TimeUnit.MILLISECONDS);
+
+        this.executor.scheduleWithFixedDelay(() -> {
+            try {
+                this.compactIfNeeded();
+            } catch (Throwable t) {
+                FastLogger.logException(t);
+            }
+        }, COMPACTION_INTERVAL, COMPACTION_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    /* ---------------- */
+    /* Reads            */
+    /* ---------------- */
+
+    @Override
+    public @Nullable Account findById(@NonNull String accountId) {
+        this.lock.readLock().lock();
+        try {
+            Integer position = this.byId.get(accountId);
+
+            if (position == null) {
+                return null;
+            }
+
+            Account account = ACCOUNT_CODEC.decode(this.readerAt(position), DecoderContext.builder().build());
+
+            account.markPersisted();
+            return account;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public @Nullable Account findByEmail(@NonNull String email) {
+        String accountId;
+
+        this.lock.readLock().lock();
+        try {
+            accountId = this.byEmail.get(email);
+        } finally {
+            this.lock.readLock().unlock();
+        }
+
+        return (accountId == null) ? null : this.findById(accountId);
+    }
+
+    @Override
+    public @Nullable AuthPrincipal findPrincipalById(@NonNull String accountId) {
+        Account account = this.findById(accountId);
+
+        return (account == null) ? null : account.toPrincipal();
+    }
+
+    /* ---------------- */
+    /* Writes           */
+    /* ---------------- */
+
+    @Override
+    public void upsert(@NonNull Account account) {
+        BasicOutputBuffer bson = new BasicOutputBuffer();
+
+        try (BsonBinaryWriter writer = new BsonBinaryWriter(bson)) {
+            ACCOUNT_CODEC.encode(writer, account, EncoderContext.builder().build());
+        }
+
+        this.lock.writeLock().lock();
+        try {
+            this.append(account.getAccountId(), account.getEmail(), bson.toByteArray());
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not write to the account log.", e);
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void update(@NonNull String accountId, @NonNull Map<String, Object> fields) {
+        this.lock.writeLock().lock();
+        try {
+            Integer position = this.byId.get(accountId);
+
+            if (position == null) {
+                return; // Same as an update in Mongo that matches nothing.
+            }
+
+            // Records are plain BSON, so we can patch them without knowing what's in them.
+            Document document = DOCUMENT_CODEC.decode(this.readerAt(position), DecoderContext.builder().build());
+            document.putAll(fields);
+
+            BasicOutputBuffer bson = new BasicOutputBuffer();
+
+            try (BsonBinaryWriter writer = new BsonBinaryWriter(bson)) {
+                DOCUMENT_CODEC.encode(writer, document, EncoderContext.builder().build());
+            }
+
+            this.append(accountId, document.getString("email"), bson.toByteArray());
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not write to the account log.", e);
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Must hold the write lock.
+     * 
+     * @throws IllegalStateException if another account already uses the email,
+     *                               like the unique index would in Mongo.
+     */
+    private void append(String accountId, String email, byte[] bson) throws IOException {
+        String owner = this.byEmail.get(email);
+
+        if ((owner != null) && !owner.equals(accountId)) {
+            throw new IllegalStateException("Another account already uses that email.");
+        }
+
+        int recordSize = HEADER_SIZE + bson.length;
+
+        // Always leave room for the 0 length end marker.
+        this.ensureCapacity(this.writePosition + recordSize + 4);
+
+        CRC32 crc = new CRC32();
+        crc.update(bson);
+
+        int position = this.writePosition;
+
+        // Write the body first and the length last, so a torn write never looks
+        // like a complete record.
+        this.buffer.position(position + HEADER_SIZE);
+        this.buffer.put(bson);
+        this.buffer.putInt(0);
+        this.buffer.putInt(position + 4, (int) crc.getValue());
+        this.buffer.putInt(position, bson.length);
+
+        Integer previous = this.byId.put(accountId, position);
+
+        if (previous != null) {
+            this.garbageBytes += HEADER_SIZE + this.buffer.getInt(previous);
+        }
+
+        this.index(accountId, email);
+        this.writePosition += recordSize;
+        this.dirty = true;
+    }
+
+    private void index(String accountId, String email) {
+        String previousEmail = this.emails.put(accountId, email);
+
+        if ((previousEmail != null) && !previousEmail.equals(email)) {
+            this.byEmail.remove(previousEmail, accountId);
+        }
+
+        this.byEmail.put(email, accountId);
+    }
+
+    /* ---------------- */
+    /* File management  */
+    /* ---------------- */
+
+    @SuppressWarnings("resource")
+    private void open() throws IOException {
+        this.channel = new RandomAccessFile(this.file, "rw").getChannel();
+        this.map(Math.max(MIN_CAPACITY, this.channel.size()));
+    }
+
+    private void map(long capacity) throws IOException {
+        if (capacity > Integer.MAX_VALUE) {
+            throw new IOException("The account log can't grow past 2GB, something's very wrong.");
+        }
+
+        this.buffer = this.channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+    }
+
+    private void ensureCapacity(long needed) throws IOException {
+        if (needed > this.buffer.capacity()) {
+            this.buffer.force();
+            this.map(Math.max(needed, this.buffer.capacity() * 2L));
+        }
+    }
+
+    private void replay() {
+        int position = 0;
+
+        while (position + HEADER_SIZE <= this.buffer.capacity()) {
+            int length = this.buffer.getInt(position);
+
+            if ((length <= 0) || (position + HEADER_SIZE + length > this.buffer.capacity())) {
+                break;
+            }
+
+            byte[] bson = new byte[length];
+            ByteBuffer slice = this.buffer.duplicate();
+            slice.position(position + HEADER_SIZE);
+            slice.get(bson);
+
+            CRC32 crc = new CRC32();
+            crc.update(bson);
+
+            if ((int) crc.getValue() != this.buffer.getInt(position + 4)) {
+                FastLogger.logStatic(LogLevel.WARNING, "Account log has a torn record at %d, discarding everything after it.", position);
+                break;
+            }
+
+            Account account = ACCOUNT_CODEC.decode(new BsonBinaryReader(ByteBuffer.wrap(bson)), DecoderContext.builder().build());
+            Integer previous = this.byId.put(account.getAccountId(), position);
+
+            if (previous != null) {
+                this.garbageBytes += HEADER_SIZE + this.buffer.getInt(previous);
+            }
+
+            this.index(account.getAccountId(), account.getEmail());
+            position += HEADER_SIZE + length;
+        }
+
+        this.writePosition = position;
+
+        // Make sure whatever's after the last good record reads as the end.
+        if (position + 4 <= this.buffer.capacity()) {
+            this.buffer.putInt(position, 0);
+        }
+    }
+
+    private BsonBinaryReader readerAt(int position) {
+        ByteBuffer slice = this.buffer.duplicate();
+
+        slice.position(position + HEADER_SIZE);
+        slice.limit(position + HEADER_SIZE + this.buffer.getInt(position));
+
+        return new BsonBinaryReader(slice.slice());
+    }
+
+    public void flush() {
+        this.lock.readLock().lock();
+        try {
+            if (this.dirty) {
+                this.dirty = false;
+                this.buffer.force();
+            }
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Rewrites the log with just the latest record of each account, once enough
+     * of it is garbage to be worth the trouble.
+     */
+    public void compactIfNeeded() throws IOException {
+        this.lock.writeLock().lock();
+        try {
+            if ((this.garbageBytes < COMPACTION_MIN_GARBAGE) || (this.garbageBytes < (this.writePosition / 2))) {
+                return;
+            }
+
+            long start = System.currentTimeMillis();
+            File compacted = new File(this.file.getPath() + ".compact");
+            Map<String, Integer> newPositions = new HashMap<>();
+            int position = 0;
+
+            try (FileChannel out = new RandomAccessFile(compacted, "rw").getChannel()) {
+                out.truncate(0);
+
+                for (Map.Entry<String, Integer> entry : this.byId.entrySet()) {
+                    int oldPosition = entry.getValue();
+                    int recordSize = HEADER_SIZE + this.buffer.getInt(oldPosition);
+
+                    ByteBuffer record = this.buffer.duplicate();
+                    record.position(oldPosition);
+                    record.limit(oldPosition + recordSize);
+
+                    while (record.hasRemaining()) {
+                        out.write(record);
+                    }
+
+                    newPositions.put(entry.getKey(), position);
+                    position += recordSize;
+                }
+
+                out.force(true);
+            }
+
+            this.buffer.force();
+            this.channel.close();
+
+            Files.move(compacted.toPath(), this.file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            long before = this.writePosition;
+
+            this.open();
+            this.byId.putAll(newPositions);
+            this.writePosition = position;
+            this.garbageBytes = 0;
+
+            this.ensureCapacity(position + 4);
+            this.buffer.putInt(position, 0);
+
+            FastLogger.logStatic(LogLevel.INFO, "Compacted the account log from %d to %d bytes in %dms.", before, position, System.currentTimeMillis() - start);
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        this.executor.shutdown();
+
+        this.lock.writeLock().lock();
+        try {
+            this.buffer.force();
+            this.channel.close();
+        } catch (IOException e) {
+            FastLogger.logException(e);
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+}
@@ -0,0 +1,37 @@
+package co.casterlabs.mimoto.accounts;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+import lombok.NonNull;
+
+/**
+ * For single node deployments there's nobody else to tell. Any number of
+ * channels can be linked together with {@link #link(LocalInvalidationChannel)}
+ * to stand in for a cluster.
+ */
+public class LocalInvalidationChannel implements AccountInvalidationChannel {
+    private final List<Consumer<String>> listeners = new CopyOnWriteArrayList<>();
+    private final List<LocalInvalidationChannel> peers = new CopyOnWriteArrayList<>();
+
+    public void link(@NonNull LocalInvalidationChannel other) {
+        this.peers.add(other);
+        other.peers.add(this);
+    }
+
+    @Override
+    public void publish(@NonNull String accountId) {
+        for (LocalInvalidationChannel peer : this.peers) {
+            for (Consumer<String> listener : peer.listeners) {
+                listener.accept(accountId);
+            }
+        }
+    }
+
+    @Override
+    public void subscribe(@NonNull Consumer<String> listener) {
+        this.listeners.add(listener);
+    }
+
+}
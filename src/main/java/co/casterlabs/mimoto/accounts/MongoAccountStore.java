@@ -0,0 +1,234 @@
+package co.casterlabs.mimoto.accounts;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import org.bson.Document;
+import org.bson.codecs.configuration.CodecRegistries;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.jetbrains.annotations.Nullable;
+
+import com.mongodb.MongoClient;
+import com.mongodb.ReadPreference;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.result.UpdateResult;
+
+import co.casterlabs.mimoto.util.AsyncUtil;
+import co.casterlabs.mimoto.util.ExpiringCache;
+import lombok.NonNull;
+
+/**
+ * Stores accounts in Mongo, on top of the driver's typed collections and our
+ * own codecs. The blocking methods go through the sync driver, the async ones
+ * through the reactive streams driver so nothing parks a thread waiting on
+ * Mongo. Both are pointed at the same database.
+ * 
+ * Reads by id (token checks, profile reads) can be sent to secondaries. To make
+ * sure whoever just changed an account sees their own write, an account that
+ * was written recently (here or on another node) is read from the primary
+ * until the replicas are guaranteed to have caught up. Lookups by email are
+ * always done on the primary, they're what login and signup depend on.
+ */
+public class MongoAccountStore implements AccountStore {
+    public static final Document PRINCIPAL_PROJECTION = new Document()
+        .append("_id", 0)
+        .append("accountId", 1)
+        .append("passwordHash", 1)
+        .append("passwordChangedAt", 1)
+        .append("emailVerified", 1)
+        .append("isBanned", 1);
+
+    private static final ReplaceOptions UPSERT = new ReplaceOptions().upsert(true);
+
+    private static final CodecRegistry CODECS = CodecRegistries.fromRegistries(
+        CodecRegistries.fromCodecs(new AccountCodec(), new AuthPrincipalCodec()),
+        MongoClient.getDefaultCodecRegistry()
+    );
+
+    private static final int MAX_PINNED_ACCOUNTS = 100_000;
+
+    private final MongoCollection<Account> accounts;
+    private final MongoCollection<AuthPrincipal> principals;
+    private final MongoCollection<Account> replicaAccounts;
+    private final MongoCollection<AuthPrincipal> replicaPrincipals;
+
+    private final com.mongodb.reactivestreams.client.MongoCollection<Account> asyncAccounts;
+    private final com.mongodb.reactivestreams.client.MongoCollection<AuthPrincipal> asyncPrincipals;
+    private final com.mongodb.reactivestreams.client.MongoCollection<Account> asyncReplicaAccounts;
+    private final com.mongodb.reactivestreams.client.MongoCollection<AuthPrincipal> asyncReplicaPrincipals;
+
+    private final @Nullable ExpiringCache<String, Boolean> pinnedToPrimary;
+
+    public MongoAccountStore(@NonNull MongoDatabase database, @NonNull com.mongodb.reactivestreams.client.MongoDatabase asyncDatabase) {
+        this(database, asyncDatabase, ReadPreference.primary(), 0);
+    }
+
+    /**
+     * @param database       used by the blocking methods.
+     * @param asyncDatabase  the same database, used by the async methods.
+     * @param readPreference where reads by id go.
+     * @param pinMillis      how long to keep reading an account from the primary
+     *                       after it was written, this should be at least the max
+     *                       staleness of the read preference.
+     */
+    public MongoAccountStore(@NonNull MongoDatabase database, @NonNull com.mongodb.reactivestreams.client.MongoDatabase asyncDatabase, @NonNull ReadPreference readPreference, long pinMillis) {
+        this.accounts = database
+            .getCollection("accounts", Account.class)
+            .withCodecRegistry(CODECS)
+            .withReadPreference(ReadPreference.primary());
+        this.asyncAccounts = asyncDatabase
+            .getCollection("accounts", Account.class)
+            .withCodecRegistry(CODECS)
+            .withReadPreference(ReadPreference.primary());
+        this.principals = this.accounts.withDocumentClass(AuthPrincipal.class);
+        this.asyncPrincipals = this.asyncAccounts.withDocumentClass(AuthPrincipal.class);
+
+        if (readPreference.equals(ReadPreference.primary())) {
+            this.replicaAccounts = this.accounts;
+            this.asyncReplicaAccounts = this.asyncAccounts;
+            this.pinnedToPrimary = null;
+        } else {
+            this.replicaAccounts = this.accounts.withReadPreference(readPreference);
+            this.asyncReplicaAccounts = this.asyncAccounts.withReadPreference(readPreference);
+            this.pinnedToPrimary = new ExpiringCache<>(MAX_PINNED_ACCOUNTS, pinMillis);
+        }
+
+        this.replicaPrincipals = this.replicaAccounts.withDocumentClass(AuthPrincipal.class);
+        this.asyncReplicaPrincipals = this.asyncReplicaAccounts.withDocumentClass(AuthPrincipal.class);
+    }
+
+    private void pinToPrimary(String accountId) {
+        if (this.pinnedToPrimary != null) {
+            this.pinnedToPrimary.put(accountId, true);
+        }
+    }
+
+    private boolean isPinnedToPrimary(String accountId) {
+        return (this.pinnedToPrimary == null) || (this.pinnedToPrimary.get(accountId) != null);
+    }
+
+    @Override
+    public void onRemoteWrite(@NonNull String accountId) {
+        this.pinToPrimary(accountId);
+    }
+
+    /* ---------------- */
+    /* Blocking         */
+    /* ---------------- */
+
+    @Override
+    public @Nullable Account findById(@NonNull String accountId) {
+        MongoCollection<Account> collection = this.isPinnedToPrimary(accountId) ? this.accounts : this.replicaAccounts;
+
+        return markPersisted(
+            collection
+                .find(new Document("accountId", accountId))
+                .first()
+        );
+    }
+
+    @Override
+    public @Nullable Account findByEmail(@NonNull String email) {
+        return markPersisted(
+            this.accounts
+                .find(new Document("email", email))
+                .first()
+        );
+    }
+
+    @Override
+    public @Nullable AuthPrincipal findPrincipalById(@NonNull String accountId) {
+        MongoCollection<AuthPrincipal> collection = this.isPinnedToPrimary(accountId) ? this.principals : this.replicaPrincipals;
+
+        return collection
+            .find(new Document("accountId", accountId))
+            .projection(PRINCIPAL_PROJECTION)
+            .first();
+    }
+
+    @Override
+    public void upsert(@NonNull Account account) {
+        this.pinToPrimary(account.getAccountId());
+        this.accounts.replaceOne(new Document("accountId", account.getAccountId()), account, UPSERT);
+    }
+
+    @Override
+    public void update(@NonNull String accountId, @NonNull Map<String, Object> fields) {
+        this.updateMatching(accountId, fields);
+    }
+
+    /**
+     * @return the number of accounts that matched, 0 or 1.
+     */
+    public long updateMatching(@NonNull String accountId, @NonNull Map<String, Object> fields) {
+        this.pinToPrimary(accountId);
+
+        return this.accounts
+            .updateOne(new Document("accountId", accountId), new Document("$set", new Document(fields)))
+            .getMatchedCount();
+    }
+
+    /* ---------------- */
+    /* Async            */
+    /* ---------------- */
+
+    @Override
+    public CompletableFuture<Account> findByIdAsync(@NonNull String accountId) {
+        com.mongodb.reactivestreams.client.MongoCollection<Account> collection = this.isPinnedToPrimary(accountId) ? this.asyncAccounts : this.asyncReplicaAccounts;
+
+        return AsyncUtil.first(collection.find(new Document("accountId", accountId)).first())
+            .thenApply(MongoAccountStore::markPersisted);
+    }
+
+    @Override
+    public CompletableFuture<Account> findByEmailAsync(@NonNull String email) {
+        return AsyncUtil.first(this.asyncAccounts.find(new Document("email", email)).first())
+            .thenApply(MongoAccountStore::markPersisted);
+    }
+
+    @Override
+    public CompletableFuture<AuthPrincipal> findPrincipalByIdAsync(@NonNull String accountId) {
+        com.mongodb.reactivestreams.client.MongoCollection<AuthPrincipal> collection = this.isPinnedToPrimary(accountId) ? this.asyncPrincipals : this.asyncReplicaPrincipals;
+
+        return AsyncUtil.first(
+            collection
+                .find(new Document("accountId", accountId))
+                .projection(PRINCIPAL_PROJECTION)
+                .first()
+        );
+    }
+
+    @Override
+    public CompletableFuture<Void> upsertAsync(@NonNull Account account) {
+        this.pinToPrimary(account.getAccountId());
+
+        return AsyncUtil.first(this.asyncAccounts.replaceOne(new Document("accountId", account.getAccountId()), account, UPSERT))
+            .thenApply((r) -> null);
+    }
+
+    @Override
+    public CompletableFuture<Void> updateAsync(@NonNull String accountId, @NonNull Map<String, Object> fields) {
+        return this.updateMatchingAsync(accountId, fields).thenApply((r) -> null);
+    }
+
+    /**
+     * @return the number of accounts that matched, 0 or 1.
+     */
+    public CompletableFuture<Long> updateMatchingAsync(@NonNull String accountId, @NonNull Map<String, Object> fields) {
+        this.pinToPrimary(accountId);
+
+        return AsyncUtil.first(this.asyncAccounts.updateOne(new Document("accountId", accountId), new Document("$set", new Document(fields))))
+            .thenApply(UpdateResult::getMatchedCount);
+    }
+
+    private static @Nullable Account markPersisted(@Nullable Account account) {
+        if (account != null) {
+            account.markPersisted();
+        }
+
+        return account;
+    }
+
+}
@@ -0,0 +1,148 @@
+package co.casterlabs.mimoto.accounts;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.bson.Document;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.Updates;
+
+import co.casterlabs.mimoto.util.CryptoUtil;
+import lombok.NonNull;
+import xyz.e3ndr.fastloggingframework.logging.FastLogger;
+
+/**
+ * Keeps a version stamp per account in Mongo and polls for stamps that were
+ * bumped by other nodes. The poll window overlaps a bit to cover clock skew
+ * between nodes, so we remember which versions we've already delivered rather
+ * than invalidating the same write on every overlapping poll.
+ */
+public class PollingInvalidationChannel implements AccountInvalidationChannel {
+    private static final long POLL_INTERVAL = TimeUnit.SECONDS.toMillis(1);
+    private static final long CLOCK_SKEW = TimeUnit.SECONDS.toMillis(2);
+    private static final long STAMP_LIFETIME = TimeUnit.HOURS.toMillis(1);
+
+    private final String nodeId = new String(CryptoUtil.generateRandomId());
+
+    private final MongoCollection<Document> collection;
+    private final List<Consumer<String>> listeners = new CopyOnWriteArrayList<>();
+
+    private long lastPoll = System.currentTimeMillis();
+
+    // accountId -> the last version we delivered, only touched by the poll thread.
+    private final Map<String, Delivered> delivered = new HashMap<>();
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor((r) -> {
+        Thread t = new Thread(r, "Mimoto - PollingInvalidationChannel");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public PollingInvalidationChannel(@NonNull MongoCollection<Document> collection) {
+        this.collection = collection;
+
+        this.executor.scheduleWithFixedDelay(() -> {
+            try {
+                this.poll();
+            } catch (Throwable t) {
+                FastLogger.logException(t);
+            }
+        }, POLL_INTERVAL, POLL_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Async saves complete on the driver's threads, so the actual write is handed
+     * off to our own thread rather than blocking theirs.
+     */
+    @Override
+    public void publish(@NonNull String accountId) {
+        this.executor.execute(() -> {
+            try {
+                long now = System.currentTimeMillis();
+
+                this.collection.updateOne(
+                    Filters.eq("accountId", accountId),
+                    Updates.combine(
+                        Updates.inc("version", 1),
+                        Updates.set("node", this.nodeId),
+                        Updates.set("updatedAt", now),
+                        Updates.set("expiresAt", new Date(now + STAMP_LIFETIME))
+                    ),
+                    new UpdateOptions().upsert(true)
+                );
+            } catch (Throwable t) {
+                FastLogger.logException(t);
+            }
+        });
+    }
+
+    @Override
+    public void subscribe(@NonNull Consumer<String> listener) {
+        this.listeners.add(listener);
+    }
+
+    private void poll() {
+        long now = System.currentTimeMillis();
+        long windowStart = this.lastPoll - CLOCK_SKEW;
+
+        Iterable<Document> changed = this.collection
+            .find(
+                Filters.and(
+                    Filters.gte("updatedAt", windowStart),
+                    Filters.ne("node", this.nodeId)
+                )
+            )
+            .projection(Projections.include("accountId", "version", "updatedAt"));
+
+        for (Document document : changed) {
+            String accountId = document.getString("accountId");
+            long version = document.get("version", Number.class).longValue();
+            long updatedAt = document.get("updatedAt", Number.class).longValue();
+
+            Delivered last = this.delivered.get(accountId);
+
+            if ((last != null) && (last.version >= version)) {
+                continue; // Already seen on an earlier (overlapping) poll.
+            }
+
+            this.delivered.put(accountId, new Delivered(version, updatedAt));
+
+            for (Consumer<String> listener : this.listeners) {
+                listener.accept(accountId);
+            }
+        }
+
+        // Anything older than the window can't come back in a poll.
+        this.delivered.values().removeIf((d) -> d.updatedAt < windowStart);
+
+        this.lastPoll = now;
+    }
+
+    @Override
+    public void close() {
+        this.executor.shutdown();
+    }
+
+    private static class Delivered {
+        private final long version;
+        private final long updatedAt;
+
+        private Delivered(long version, long updatedAt) {
+            this.version = version;
+            this.updatedAt = updatedAt;
+        }
+
+    }
+
+}
@@ -0,0 +1,229 @@
+package co.casterlabs.mimoto.accounts;
+
+import java.io.Closeable;
+import java.io.File;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.bson.Document;
+
+import com.mongodb.MongoClient;
+import com.mongodb.MongoClientURI;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.ReturnDocument;
+
+import co.casterlabs.mimoto.MimotoConfig;
+import co.casterlabs.mimoto.util.FileUtil;
+import co.casterlabs.rakurai.json.Rson;
+import lombok.NonNull;
+import xyz.e3ndr.fastloggingframework.logging.FastLogger;
+import xyz.e3ndr.fastloggingframework.logging.LogLevel;
+
+/**
+ * Streams accounts to the shard that owns them under the current ring. The
+ * Mimoto nodes should already be running with both previousAccountShards and
+ * accountShards configured, so they can find accounts on either side while
+ * this runs. Once it finishes, drop previousAccountShards from the config.
+ * 
+ * It's safe to re-run after a crash: an account that already made it to its
+ * new shard is considered authoritative there and the old copy just gets
+ * deleted. It also fills in (and repairs stale entries in) the email directory
+ * for every account it sees, so moving off of a single database is just a
+ * matter of listing it as the only previous shard.
+ * 
+ * <pre>
+ * java -cp Mimoto.jar co.casterlabs.mimoto.accounts.ShardRebalancer [config.json]
+ * </pre>
+ */
+public class ShardRebalancer implements Closeable {
+    private static final int BATCH_SIZE = 500;
+    private static final int MAX_MOVE_ATTEMPTS = 5;
+    private static final ReplaceOptions UPSERT = new ReplaceOptions().upsert(true);
+    private static final FindOneAndUpdateOptions CLAIM_OPTIONS = new FindOneAndUpdateOptions()
+        .upsert(true)
+        .returnDocument(ReturnDocument.BEFORE);
+
+    private final Map<String, MongoClient> clients = new HashMap<>();
+    private final Map<String, MongoCollection<Document>> collections = new LinkedHashMap<>();
+
+    private final ShardRing<MongoCollection<Document>> ring;
+    private final MongoCollection<Document> directory;
+
+    /**
+     * @param directoryUri the main database's uri, which holds the directory.
+     */
+    public ShardRebalancer(@NonNull List<AccountShard> shards, @NonNull List<AccountShard> previousShards, @NonNull String directoryUri) {
+        Map<String, MongoCollection<Document>> ringCollections = new LinkedHashMap<>();
+
+        for (AccountShard shard : shards) {
+            ringCollections.put(shard.getName(), this.open(shard));
+        }
+
+        for (AccountShard shard : previousShards) {
+            this.open(shard);
+        }
+
+        this.ring = new ShardRing<>(ringCollections);
+        this.directory = this.clients
+            .computeIfAbsent(directoryUri, (uri) -> new MongoClient(new MongoClientURI(uri)))
+            .getDatabase("auth")
+            .getCollection("emaildirectory");
+    }
+
+    private MongoCollection<Document> open(AccountShard shard) {
+        return this.collections.computeIfAbsent(shard.getName(), (name) -> {
+            MongoClient client = this.clients.computeIfAbsent(shard.getMongoUri(), (uri) -> new MongoClient(new MongoClientURI(uri)));
+
+            return client.getDatabase(shard.getDatabase()).getCollection("accounts");
+        });
+    }
+
+    /**
+     * @return the number of accounts moved.
+     */
+    public long run() {
+        long moved = 0;
+
+        for (Map.Entry<String, MongoCollection<Document>> entry : this.collections.entrySet()) {
+            String shardName = entry.getKey();
+            MongoCollection<Document> source = entry.getValue();
+            long movedFromShard = 0;
+
+            try (MongoCursor<Document> cursor = source.find().batchSize(BATCH_SIZE).iterator()) {
+                while (cursor.hasNext()) {
+                    Document document = cursor.next();
+                    String accountId = document.getString("accountId");
+
+                    if (accountId == null) {
+                        continue;
+                    }
+
+                    this.index(document.getString("email"), accountId);
+
+                    if (this.ring.getShardName(accountId).equals(shardName)) {
+                        continue;
+                    }
+
+                    move(document, source, this.ring.get(accountId));
+                    movedFromShard++;
+
+                    if ((movedFromShard % 1000) == 0) {
+                        FastLogger.logStatic(LogLevel.INFO, "Moved %d accounts off of %s so far.", movedFromShard, shardName);
+                    }
+                }
+            }
+
+            FastLogger.logStatic(LogLevel.INFO, "Moved %d accounts off of %s.", movedFromShard, shardName);
+            moved += movedFromShard;
+        }
+
+        return moved;
+    }
+
+    /**
+     * Points the directory entry for the email at the account, unless another
+     * account that still has that email holds it.
+     */
+    private void index(String email, String accountId) {
+        Document previous = this.directory.findOneAndUpdate(
+            new Document("_id", email),
+            new Document("$setOnInsert", new Document("accountId", accountId)),
+            CLAIM_OPTIONS
+        );
+
+        if ((previous == null) || accountId.equals(previous.getString("accountId"))) {
+            return;
+        }
+
+        String holderId = previous.getString("accountId");
+        Document holder = this.findAnywhere(holderId);
+
+        if ((holder != null) && email.equals(holder.getString("email"))) {
+            FastLogger.logStatic(LogLevel.WARNING, "Accounts %s and %s both use %s, only %s will be able to log in. Fix this by hand.", holderId, accountId, email, holderId);
+            return;
+        }
+
+        // Left over from a failed signup or an email change.
+        this.directory.updateOne(
+            new Document("_id", email).append("accountId", holderId),
+            new Document("$set", new Document("accountId", accountId))
+        );
+    }
+
+    private Document findAnywhere(String accountId) {
+        Document byId = new Document("accountId", accountId);
+
+        for (MongoCollection<Document> collection : this.collections.values()) {
+            Document document = collection.find(byId).first();
+
+            if (document != null) {
+                return document;
+            }
+        }
+
+        return null;
+    }
+
+    private static void move(Document document, MongoCollection<Document> source, MongoCollection<Document> target) {
+        String accountId = document.getString("accountId");
+        Document byId = new Document("accountId", accountId);
+
+        for (int attempt = 0; attempt < MAX_MOVE_ATTEMPTS; attempt++) {
+            if (target.find(byId).first() != null) {
+                // A previous run got this far, or it was written there since. Either way
+                // the target's copy is the newer one.
+                source.deleteOne(byId);
+                return;
+            }
+
+            Document copy = new Document(document);
+            copy.remove("_id");
+
+            target.replaceOne(byId, copy, UPSERT);
+
+            // Only delete the old copy if nobody wrote to it in the meantime, the whole
+            // document (including _id) is the filter.
+            if (source.deleteOne(document).getDeletedCount() == 1) {
+                return;
+            }
+
+            document = source.find(byId).first();
+
+            if (document == null) {
+                return; // Gone, nothing left to move.
+            }
+
+            target.deleteOne(byId); // Redo the copy with the fresh document.
+        }
+
+        throw new IllegalStateException("Account " + accountId + " kept changing while being moved, try again later.");
+    }
+
+    @Override
+    public void close() {
+        for (MongoClient client : this.clients.values()) {
+            client.close();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        File configFile = new File((args.length > 0) ? args[0] : "plugins/Mimoto/config.json");
+        MimotoConfig config = Rson.DEFAULT.fromJson(FileUtil.read(configFile), MimotoConfig.class);
+
+        if (config.getAccountShards().isEmpty()) {
+            throw new IllegalArgumentException("No accountShards are configured.");
+        }
+
+        try (ShardRebalancer rebalancer = new ShardRebalancer(config.getAccountShards(), config.getPreviousAccountShards(), config.getMongoUri())) {
+            long moved = rebalancer.run();
+
+            FastLogger.logStatic(LogLevel.INFO, "Done, moved %d accounts. You can now remove previousAccountShards from the config.", moved);
+        }
+    }
+
+}
@@ -0,0 +1,47 @@
+package co.casterlabs.mimoto.accounts;
+
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import co.casterlabs.mimoto.util.CryptoUtil;
+import lombok.NonNull;
+
+/**
+ * A consistent hash ring, so adding a shard only moves ~1/N of the keys. Each
+ * shard gets a bunch of virtual nodes to even out the distribution.
+ */
+public class ShardRing<T> {
+    private static final int VIRTUAL_NODES = 160;
+
+    private final TreeMap<Long, String> ring = new TreeMap<>();
+    private final Map<String, T> shards;
+
+    /**
+     * @param shards keyed by their (stable) name.
+     */
+    public ShardRing(@NonNull Map<String, T> shards) {
+        if (shards.isEmpty()) {
+            throw new IllegalArgumentException("A ring needs at least one shard.");
+        }
+
+        this.shards = shards;
+
+        for (String name : shards.keySet()) {
+            for (int i = 0; i < VIRTUAL_NODES; i++) {
+                this.ring.put(CryptoUtil.fingerprint(name + '#' + i), name);
+            }
+        }
+    }
+
+    public String getShardName(@NonNull String key) {
+        SortedMap<Long, String> tail = this.ring.tailMap(CryptoUtil.fingerprint(key));
+
+        return tail.isEmpty() ? this.ring.firstEntry().getValue() : tail.get(tail.firstKey());
+    }
+
+    public T get(@NonNull String key) {
+        return this.shards.get(this.getShardName(key));
+    }
+
+}
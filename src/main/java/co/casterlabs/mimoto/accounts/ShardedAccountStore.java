@@ -0,0 +1,416 @@
+package co.casterlabs.mimoto.accounts;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+import org.bson.Document;
+import org.jetbrains.annotations.Nullable;
+
+import com.mongodb.MongoClient;
+import com.mongodb.MongoClientURI;
+import com.mongodb.ReadPreference;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.ReturnDocument;
+import com.mongodb.reactivestreams.client.MongoClients;
+
+import co.casterlabs.mimoto.util.AsyncUtil;
+import lombok.NonNull;
+
+/**
+ * Spreads accounts over several Mongo databases (or whole clusters) by hashing
+ * their id onto a {@link ShardRing}. Since emails can't be hashed to the same
+ * shard as the id, a small global directory maps emails to account ids.
+ * 
+ * While a {@link ShardRebalancer} is moving accounts around, the previous ring
+ * is kept as a fallback: anything that misses on its new shard is looked for
+ * on its old one.
+ */
+public class ShardedAccountStore implements AccountStore {
+    private static final FindOneAndUpdateOptions CLAIM_OPTIONS = new FindOneAndUpdateOptions()
+        .upsert(true)
+        .returnDocument(ReturnDocument.BEFORE);
+
+    private static final int MAX_CLAIM_ATTEMPTS = 3;
+
+    private final Map<String, MongoClient> clients = new HashMap<>();
+    private final Map<String, com.mongodb.reactivestreams.client.MongoClient> asyncClients = new HashMap<>();
+    private final Map<String, MongoAccountStore> stores = new LinkedHashMap<>();
+
+    private final ShardRing<MongoAccountStore> ring;
+    private final @Nullable ShardRing<MongoAccountStore> previousRing;
+
+    private final MongoCollection<Document> directory;
+    private final com.mongodb.reactivestreams.client.MongoCollection<Document> asyncDirectory;
+
+    private final ReadPreference readPreference;
+    private final long pinMillis;
+
+    /**
+     * @param previousShards the shards from before the last change, or empty if
+     *                       there's no rebalance going on.
+     * @param directory      the global database, which holds the emaildirectory
+     *                       collection.
+     * @param asyncDirectory the same database, for the async methods.
+     * @param readPreference see
+     *                       {@link MongoAccountStore#MongoAccountStore(MongoDatabase, com.mongodb.reactivestreams.client.MongoDatabase, ReadPreference, long)}
+     */
+    public ShardedAccountStore(@NonNull List<AccountShard> shards, @NonNull List<AccountShard> previousShards, @NonNull MongoDatabase directory, @NonNull com.mongodb.reactivestreams.client.MongoDatabase asyncDirectory, @NonNull ReadPreference readPreference, long pinMillis) {
+        this.readPreference = readPreference;
+        this.pinMillis = pinMillis;
+        this.directory = directory.getCollection("emaildirectory");
+        this.asyncDirectory = asyncDirectory.getCollection("emaildirectory");
+        this.ring = new ShardRing<>(this.openStores(shards));
+        this.previousRing = previousShards.isEmpty() ? null : new ShardRing<>(this.openStores(previousShards));
+    }
+
+    private Map<String, MongoAccountStore> openStores(List<AccountShard> shards) {
+        Map<String, MongoAccountStore> ringStores = new LinkedHashMap<>();
+
+        for (AccountShard shard : shards) {
+            MongoAccountStore store = this.stores.computeIfAbsent(shard.getName(), (name) -> {
+                MongoClient client = this.clients.computeIfAbsent(shard.getMongoUri(), (uri) -> new MongoClient(new MongoClientURI(uri)));
+                com.mongodb.reactivestreams.client.MongoClient asyncClient = this.asyncClients.computeIfAbsent(shard.getMongoUri(), MongoClients::create);
+
+                return new MongoAccountStore(client.getDatabase(shard.getDatabase()), asyncClient.getDatabase(shard.getDatabase()), this.readPreference, this.pinMillis);
+            });
+
+            ringStores.put(shard.getName(), store);
+        }
+
+        return ringStores;
+    }
+
+    /* ---------------- */
+    /* Blocking         */
+    /* ---------------- */
+
+    @Override
+    public @Nullable Account findById(@NonNull String accountId) {
+        return this.withFallback(accountId, (store) -> store.findById(accountId));
+    }
+
+    @Override
+    public @Nullable AuthPrincipal findPrincipalById(@NonNull String accountId) {
+        return this.withFallback(accountId, (store) -> store.findPrincipalById(accountId));
+    }
+
+    @Override
+    public @Nullable Account findByEmail(@NonNull String email) {
+        Document entry = this.directory
+            .find(new Document("_id", email))
+            .first();
+
+        if (entry != null) {
+            Account account = this.findById(entry.getString("accountId"));
+
+            // The directory entry could be left over from a failed signup.
+            if ((account != null) && account.getEmail().equals(email)) {
+                return account;
+            }
+        }
+
+        if (this.previousRing == null) {
+            return null;
+        }
+
+        // Mid-rebalance, the rebalancer might not have gotten to this account's
+        // directory entry yet. Every shard has a unique email index, so just ask them.
+        for (MongoAccountStore store : this.stores.values()) {
+            Account account = store.findByEmail(email);
+
+            if (account != null) {
+                return account;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Claims the email in the directory before writing the account, which is what
+     * keeps emails unique across shards. A claim held by an account that's gone
+     * (or has since changed its email) gets taken over.
+     */
+    @Override
+    public void upsert(@NonNull Account account) {
+        boolean newClaim = this.claim(account.getEmail(), account.getAccountId());
+
+        try {
+            this.ring.get(account.getAccountId()).upsert(account);
+        } catch (RuntimeException e) {
+            if (newClaim) {
+                // Don't leave the email claimed by an account that doesn't exist.
+                this.directory.deleteOne(
+                    new Document("_id", account.getEmail())
+                        .append("accountId", account.getAccountId())
+                );
+            }
+
+            throw e;
+        }
+    }
+
+    /**
+     * @return whether the claim is new, as opposed to the account already holding
+     *         it.
+     */
+    private boolean claim(String email, String accountId) {
+        for (int attempt = 0; attempt < MAX_CLAIM_ATTEMPTS; attempt++) {
+            Document previous = this.directory.findOneAndUpdate(
+                new Document("_id", email),
+                new Document("$setOnInsert", new Document("accountId", accountId)),
+                CLAIM_OPTIONS
+            );
+
+            if (previous == null) {
+                return true;
+            }
+
+            String holderId = previous.getString("accountId");
+
+            if (accountId.equals(holderId)) {
+                return false;
+            }
+
+            Account holder = this.findById(holderId);
+
+            if ((holder == null) && (this.previousRing != null)) {
+                // It could've been mid-move between our two lookups, look again.
+                holder = this.findById(holderId);
+            }
+
+            if ((holder != null) && holder.getEmail().equals(email)) {
+                throw new IllegalStateException("Another account already uses that email.");
+            }
+
+            // Stale, only take it over if nobody beat us to it.
+            long taken = this.directory
+                .updateOne(
+                    new Document("_id", email).append("accountId", holderId),
+                    new Document("$set", new Document("accountId", accountId))
+                )
+                .getModifiedCount();
+
+            if (taken > 0) {
+                return true;
+            }
+        }
+
+        throw new IllegalStateException("Couldn't claim the email, try again later.");
+    }
+
+    @Override
+    public void update(@NonNull String accountId, @NonNull Map<String, Object> fields) {
+        MongoAccountStore owner = this.ring.get(accountId);
+        MongoAccountStore previousOwner = (this.previousRing == null) ? owner : this.previousRing.get(accountId);
+
+        if (owner == previousOwner) {
+            owner.update(accountId, fields);
+            return;
+        }
+
+        // The account might not have been moved yet. If it gets moved between our
+        // two attempts we'll miss on both, so give the new owner one more go.
+        if (owner.updateMatching(accountId, fields) == 0 && previousOwner.updateMatching(accountId, fields) == 0) {
+            owner.updateMatching(accountId, fields);
+        }
+    }
+
+    private <T> T withFallback(String accountId, Function<MongoAccountStore, T> operation) {
+        MongoAccountStore owner = this.ring.get(accountId);
+        MongoAccountStore previousOwner = (this.previousRing == null) ? owner : this.previousRing.get(accountId);
+
+        T result = operation.apply(owner);
+
+        if ((result == null) && (owner != previousOwner)) {
+            result = operation.apply(previousOwner);
+        }
+
+        return result;
+    }
+
+    /* ---------------- */
+    /* Async            */
+    /* ---------------- */
+
+    @Override
+    public CompletableFuture<Account> findByIdAsync(@NonNull String accountId) {
+        return this.withFallbackAsync(accountId, (store) -> store.findByIdAsync(accountId));
+    }
+
+    @Override
+    public CompletableFuture<AuthPrincipal> findPrincipalByIdAsync(@NonNull String accountId) {
+        return this.withFallbackAsync(accountId, (store) -> store.findPrincipalByIdAsync(accountId));
+    }
+
+    @Override
+    public CompletableFuture<Account> findByEmailAsync(@NonNull String email) {
+        return AsyncUtil.first(this.asyncDirectory.find(new Document("_id", email)).first())
+            .thenCompose((entry) -> {
+                if (entry == null) {
+                    return CompletableFuture.completedFuture(null);
+                }
+
+                return this.findByIdAsync(entry.getString("accountId"))
+                    // The directory entry could be left over from a failed signup.
+                    .thenApply((account) -> ((account != null) && account.getEmail().equals(email)) ? account : null);
+            })
+            .thenCompose((account) -> {
+                if ((account != null) || (this.previousRing == null)) {
+                    return CompletableFuture.completedFuture(account);
+                }
+
+                // Same as findByEmail(), ask every shard.
+                CompletableFuture<Account> result = CompletableFuture.completedFuture(null);
+
+                for (MongoAccountStore store : this.stores.values()) {
+                    result = result.thenCompose((found) -> (found == null) ? store.findByEmailAsync(email) : CompletableFuture.completedFuture(found));
+                }
+
+                return result;
+            });
+    }
+
+    /**
+     * See {@link #upsert(Account)}.
+     */
+    @Override
+    public CompletableFuture<Void> upsertAsync(@NonNull Account account) {
+        return this.claimAsync(account.getEmail(), account.getAccountId(), 0).thenCompose((newClaim) -> {
+            CompletableFuture<Void> write = this.ring.get(account.getAccountId()).upsertAsync(account);
+
+            if (!newClaim) {
+                return write;
+            }
+
+            return write
+                .handle((r, t) -> t)
+                .thenCompose((t) -> {
+                    if (t == null) {
+                        return CompletableFuture.completedFuture(null);
+                    }
+
+                    // Don't leave the email claimed by an account that doesn't exist.
+                    CompletableFuture<Void> failed = new CompletableFuture<>();
+
+                    AsyncUtil.first(
+                        this.asyncDirectory.deleteOne(
+                            new Document("_id", account.getEmail())
+                                .append("accountId", account.getAccountId())
+                        )
+                    )
+                        .whenComplete((r, deleteError) -> failed.completeExceptionally(t));
+
+                    return failed;
+                });
+        });
+    }
+
+    /**
+     * See {@link #claim(String, String)}.
+     */
+    private CompletableFuture<Boolean> claimAsync(String email, String accountId, int attempt) {
+        if (attempt >= MAX_CLAIM_ATTEMPTS) {
+            CompletableFuture<Boolean> failed = new CompletableFuture<>();
+            failed.completeExceptionally(new IllegalStateException("Couldn't claim the email, try again later."));
+            return failed;
+        }
+
+        return AsyncUtil.first(
+            this.asyncDirectory.findOneAndUpdate(
+                new Document("_id", email),
+                new Document("$setOnInsert", new Document("accountId", accountId)),
+                CLAIM_OPTIONS
+            )
+        )
+            .thenCompose((previous) -> {
+                if (previous == null) {
+                    return CompletableFuture.completedFuture(true);
+                }
+
+                String holderId = previous.getString("accountId");
+
+                if (accountId.equals(holderId)) {
+                    return CompletableFuture.completedFuture(false);
+                }
+
+                return this.findByIdAsync(holderId)
+                    // It could've been mid-move between our two lookups, look again.
+                    .thenCompose((holder) -> ((holder == null) && (this.previousRing != null)) ? this.findByIdAsync(holderId) : CompletableFuture.completedFuture(holder))
+                    .thenCompose((holder) -> {
+                        if ((holder != null) && holder.getEmail().equals(email)) {
+                            throw new IllegalStateException("Another account already uses that email.");
+                        }
+
+                        // Stale, only take it over if nobody beat us to it.
+                        return AsyncUtil.first(
+                            this.asyncDirectory.updateOne(
+                                new Document("_id", email).append("accountId", holderId),
+                                new Document("$set", new Document("accountId", accountId))
+                            )
+                        )
+                            .thenCompose((result) -> (result.getModifiedCount() > 0) ? CompletableFuture.completedFuture(true) : this.claimAsync(email, accountId, attempt + 1));
+                    });
+            });
+    }
+
+    @Override
+    public CompletableFuture<Void> updateAsync(@NonNull String accountId, @NonNull Map<String, Object> fields) {
+        MongoAccountStore owner = this.ring.get(accountId);
+        MongoAccountStore previousOwner = (this.previousRing == null) ? owner : this.previousRing.get(accountId);
+
+        if (owner == previousOwner) {
+            return owner.updateAsync(accountId, fields);
+        }
+
+        // See update().
+        return owner.updateMatchingAsync(accountId, fields)
+            .thenCompose((matched) -> (matched > 0) ? CompletableFuture.completedFuture(matched) : previousOwner.updateMatchingAsync(accountId, fields))
+            .thenCompose((matched) -> (matched > 0) ? CompletableFuture.completedFuture(matched) : owner.updateMatchingAsync(accountId, fields))
+            .thenApply((matched) -> null);
+    }
+
+    private <T> CompletableFuture<T> withFallbackAsync(String accountId, Function<MongoAccountStore, CompletableFuture<T>> operation) {
+        MongoAccountStore owner = this.ring.get(accountId);
+        MongoAccountStore previousOwner = (this.previousRing == null) ? owner : this.previousRing.get(accountId);
+
+        if (owner == previousOwner) {
+            return operation.apply(owner);
+        }
+
+        return operation.apply(owner)
+            .thenCompose((result) -> (result == null) ? operation.apply(previousOwner) : CompletableFuture.completedFuture(result));
+    }
+
+    @Override
+    public void onRemoteWrite(@NonNull String accountId) {
+        this.ring.get(accountId).onRemoteWrite(accountId);
+
+        if (this.previousRing != null) {
+            this.previousRing.get(accountId).onRemoteWrite(accountId);
+        }
+    }
+
+    public List<String> getShardNames() {
+        return new ArrayList<>(this.stores.keySet());
+    }
+
+    @Override
+    public void close() {
+        for (MongoClient client : this.clients.values()) {
+            client.close();
+        }
+
+        for (com.mongodb.reactivestreams.client.MongoClient client : this.asyncClients.values()) {
+            client.close();
+        }
+    }
+
+}
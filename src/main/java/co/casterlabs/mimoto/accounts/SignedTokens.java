@@ -0,0 +1,156 @@
+package co.casterlabs.mimoto.accounts;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.jetbrains.annotations.Nullable;
+
+import lombok.Getter;
+import lombok.NonNull;
+
+/**
+ * Compact HMAC-SHA256 signed tokens, these can be checked without touching the
+ * database or running a BCrypt.
+ * 
+ * <pre>
+ * mt2.{keyId}.{base64(accountId:credentialVersion:emailVerified:expiresAt)}.{base64(signature)}
+ * </pre>
+ * 
+ * The first configured key signs new tokens, every configured key is accepted.
+ * To rotate, put the new key first and keep the old one around until every
+ * token it signed has expired.
+ */
+public class SignedTokens {
+    public static final String PREFIX = "mt2.";
+
+    private static final String ALGORITHM = "HmacSHA256";
+
+    private static @Getter TokenMode mode = TokenMode.LEGACY;
+    private static long lifetimeMillis = TimeUnit.DAYS.toMillis(30);
+
+    private static @Nullable String signingKeyId;
+    private static Map<String, ThreadLocal<Mac>> macs = new HashMap<>();
+
+    public static void configure(@NonNull TokenMode mode, @NonNull List<SigningKey> keys, long lifetimeMillis) {
+        if ((mode != TokenMode.LEGACY) && keys.isEmpty()) {
+            throw new IllegalStateException("Token mode " + mode + " requires at least one signing key.");
+        }
+
+        Map<String, ThreadLocal<Mac>> newMacs = new HashMap<>();
+
+        for (SigningKey key : keys) {
+            if ((key.getId() == null) || key.getId().isEmpty() || key.getId().contains(".")) {
+                throw new IllegalStateException("Signing key ids must be non-empty and cannot contain a '.'");
+            }
+
+            SecretKeySpec spec = new SecretKeySpec(key.getSecret().getBytes(StandardCharsets.UTF_8), ALGORITHM);
+
+            newMacs.put(key.getId(), ThreadLocal.withInitial(() -> {
+                try {
+                    Mac mac = Mac.getInstance(ALGORITHM);
+                    mac.init(spec);
+                    return mac;
+                } catch (GeneralSecurityException e) {
+                    throw new IllegalStateException(e);
+                }
+            }));
+        }
+
+        SignedTokens.mode = mode;
+        SignedTokens.lifetimeMillis = lifetimeMillis;
+        SignedTokens.signingKeyId = keys.isEmpty() ? null : keys.get(0).getId();
+        SignedTokens.macs = newMacs;
+    }
+
+    public static boolean isSignedToken(@NonNull String token) {
+        return token.startsWith(PREFIX);
+    }
+
+    public static String issue(@NonNull Account account) {
+        String keyId = signingKeyId;
+
+        if (keyId == null) {
+            throw new IllegalStateException("No signing key is configured.");
+        }
+
+        String claims = String.join(
+            ":",
+            account.getAccountId(),
+            Long.toString(account.getPasswordChangedAt()),
+            account.isEmailVerified() ? "1" : "0",
+            Long.toString(System.currentTimeMillis() + lifetimeMillis)
+        );
+
+        String unsigned = PREFIX + keyId + '.' + encode(claims.getBytes(StandardCharsets.UTF_8));
+
+        return unsigned + '.' + encode(sign(macs.get(keyId), unsigned));
+    }
+
+    /**
+     * @return the claims, or null if the token is malformed, forged, signed with an
+     *         unknown key or expired.
+     */
+    public static @Nullable TokenClaims verify(@NonNull String token) {
+        if (!isSignedToken(token)) {
+            return null;
+        }
+
+        try {
+            int keyEnd = token.indexOf('.', PREFIX.length());
+            int claimsEnd = (keyEnd == -1) ? -1 : token.indexOf('.', keyEnd + 1);
+
+            if (claimsEnd == -1) {
+                return null;
+            }
+
+            ThreadLocal<Mac> mac = macs.get(token.substring(PREFIX.length(), keyEnd));
+
+            if (mac == null) {
+                return null;
+            }
+
+            byte[] expected = sign(mac, token.substring(0, claimsEnd));
+            byte[] signature = Base64.getUrlDecoder().decode(token.substring(claimsEnd + 1));
+
+            if (!MessageDigest.isEqual(expected, signature)) {
+                return null;
+            }
+
+            String claims = new String(Base64.getUrlDecoder().decode(token.substring(keyEnd + 1, claimsEnd)), StandardCharsets.UTF_8);
+            String[] split = claims.split(":");
+
+            if (split.length != 4) {
+                return null;
+            }
+
+            TokenClaims result = new TokenClaims(
+                split[0],
+                Long.parseLong(split[1]),
+                split[2].equals("1"),
+                Long.parseLong(split[3])
+            );
+
+            return result.isExpired() ? null : result;
+        } catch (IllegalArgumentException e) { // Bad base64 or numbers.
+            return null;
+        }
+    }
+
+    private static byte[] sign(ThreadLocal<Mac> mac, String unsigned) {
+        return mac.get().doFinal(unsigned.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String encode(byte[] bytes) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+
+}
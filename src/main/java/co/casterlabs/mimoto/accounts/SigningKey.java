@@ -0,0 +1,20 @@
+package co.casterlabs.mimoto.accounts;
+
+import co.casterlabs.rakurai.json.annotating.JsonClass;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+@Getter
+@ToString
+@AllArgsConstructor
+@JsonClass(exposeAll = true)
+public class SigningKey {
+    private String id;
+
+    @ToString.Exclude
+    private String secret;
+
+    public SigningKey() {}
+
+}
@@ -0,0 +1,87 @@
+package co.casterlabs.mimoto.accounts;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import co.casterlabs.mimoto.util.CryptoUtil;
+import co.casterlabs.mimoto.util.ExpiringCache;
+import co.casterlabs.mimoto.util.SingleFlight;
+import lombok.AllArgsConstructor;
+import lombok.NonNull;
+
+/**
+ * Remembers which tokens have already passed (or failed) the BCrypt check, so
+ * that repeat requests don't have to pay for it again. Tokens are only ever
+ * kept as a hash, and a positive entry is only honored while the account's
+ * password hash still matches the fingerprint it was validated against.
+ */
+public class TokenCache {
+    private static final int MAX_VALID_TOKENS = 50_000;
+    private static final int MAX_INVALID_TOKENS = 10_000;
+
+    private static final long VALID_TTL = TimeUnit.MINUTES.toMillis(15);
+    private static final long INVALID_TTL = TimeUnit.MINUTES.toMillis(1);
+
+    private static final ExpiringCache<String, ValidatedToken> validTokens = new ExpiringCache<>(MAX_VALID_TOKENS, VALID_TTL);
+    private static final ExpiringCache<String, Boolean> invalidTokens = new ExpiringCache<>(MAX_INVALID_TOKENS, INVALID_TTL);
+
+    private static final SingleFlight<String, Boolean> validations = new SingleFlight<>();
+
+    /**
+     * @param check the (expensive) check to run on a cache miss.
+     */
+    public static boolean verify(@NonNull String token, @NonNull String accountId, @NonNull String passwordHash, @NonNull BooleanSupplier check) {
+        String key = CryptoUtil.hash(token);
+        long fingerprint = CryptoUtil.fingerprint(passwordHash);
+
+        ValidatedToken validated = validTokens.get(key);
+
+        if ((validated != null) && validated.accountId.equals(accountId) && (validated.passwordFingerprint == fingerprint)) {
+            return true;
+        }
+
+        if (invalidTokens.get(key) != null) {
+            return false;
+        }
+
+        // Clients love firing off a bunch of requests with the same token at once,
+        // only one of them needs to actually do the check.
+        return validations.run(key + ':' + fingerprint, () -> {
+            if (check.getAsBoolean()) {
+                validTokens.put(key, new ValidatedToken(accountId, fingerprint));
+                return true;
+            } else {
+                invalidTokens.put(key, true);
+                return false;
+            }
+        });
+    }
+
+    /**
+     * Drops every token for the account that was validated against a different
+     * password hash, or all of them if the account is banned.
+     */
+    public static void invalidate(@NonNull String accountId, @NonNull String passwordHash, boolean isBanned) {
+        long fingerprint = CryptoUtil.fingerprint(passwordHash);
+
+        validTokens.removeIf((key, validated) -> {
+            return validated.accountId.equals(accountId) && (isBanned || (validated.passwordFingerprint != fingerprint));
+        });
+    }
+
+    public static ExpiringCache<String, ?> getValidTokens() {
+        return validTokens;
+    }
+
+    public static ExpiringCache<String, ?> getInvalidTokens() {
+        return invalidTokens;
+    }
+
+    @AllArgsConstructor
+    private static class ValidatedToken {
+        private final String accountId;
+        private final long passwordFingerprint;
+
+    }
+
+}
@@ -0,0 +1,27 @@
+package co.casterlabs.mimoto.accounts;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+@Getter
+@ToString
+@AllArgsConstructor
+public class TokenClaims {
+    private String accountId;
+
+    /**
+     * When the password was last changed as of issuing the token, changing the
+     * password revokes every token issued before it.
+     */
+    private long credentialVersion;
+
+    private boolean emailVerified;
+
+    private long expiresAt;
+
+    public boolean isExpired() {
+        return System.currentTimeMillis() >= this.expiresAt;
+    }
+
+}
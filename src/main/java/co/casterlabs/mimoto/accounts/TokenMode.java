@@ -0,0 +1,19 @@
+package co.casterlabs.mimoto.accounts;
+
+public enum TokenMode {
+    /**
+     * Issue legacy tokens, accept both kinds.
+     */
+    LEGACY,
+
+    /**
+     * Issue signed tokens, accept both kinds.
+     */
+    MIGRATE,
+
+    /**
+     * Issue signed tokens, only accept signed tokens.
+     */
+    SIGNED;
+
+}
@@ -0,0 +1,87 @@
+package co.casterlabs.mimoto.email;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.Document;
+import org.jetbrains.annotations.Nullable;
+
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoWriteException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.Updates;
+
+import co.casterlabs.mimoto.session.GcraRateLimiter;
+import lombok.Getter;
+import lombok.NonNull;
+
+/**
+ * Lets at most one email of each kind go out per account within a window, so
+ * someone mashing "resend" reuses the token (and the email) that's already on
+ * its way instead of costing us a write and a send every time.
+ * <p>
+ * Locally this is a {@link GcraRateLimiter} with a burst of one, so it's a
+ * fixed size table of longs. With a collection it's also shared between nodes,
+ * the first node to claim the window for an account wins.
+ */
+public class EmailCoalescer {
+    private static final UpdateOptions UPSERT = new UpdateOptions().upsert(true);
+
+    private final GcraRateLimiter local = new GcraRateLimiter(50_000);
+    private final @Getter long windowMillis;
+    private final long windowNanos;
+
+    private final @Nullable MongoCollection<Document> collection;
+
+    /**
+     * @param collection where to share claims, or null to only coalesce on this
+     *                   node.
+     */
+    public EmailCoalescer(long windowMillis, @Nullable MongoCollection<Document> collection) {
+        this.windowMillis = windowMillis;
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        this.collection = collection;
+    }
+
+    /**
+     * @return true if the caller should do the work, false if another request
+     *         for this account already did it within the window.
+     */
+    public boolean tryClaim(@NonNull String kind, @NonNull String accountId) {
+        if (this.windowMillis <= 0) {
+            return true;
+        }
+
+        String key = kind + ':' + accountId;
+
+        if (this.local.acquire(GcraRateLimiter.hash(key), this.windowNanos, 1, 1, System.nanoTime()) == -1) {
+            return false;
+        }
+
+        if (this.collection == null) {
+            return true;
+        }
+
+        Date now = new Date();
+
+        try {
+            // Matches nothing while someone else's claim is live, so the upsert
+            // then collides on _id.
+            this.collection.updateOne(
+                Filters.and(Filters.eq("_id", key), Filters.lte("expiresAt", now)),
+                Updates.set("expiresAt", new Date(now.getTime() + this.windowMillis)),
+                UPSERT
+            );
+            return true;
+        } catch (MongoWriteException e) {
+            if (e.getError().getCategory() == ErrorCategory.DUPLICATE_KEY) {
+                return false;
+            }
+
+            throw e;
+        }
+    }
+
+}
@@ -0,0 +1,149 @@
+package co.casterlabs.mimoto.email;
+
+import java.io.Closeable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import co.casterlabs.mimoto.session.GcraRateLimiter;
+import lombok.NonNull;
+import xyz.e3ndr.fastloggingframework.logging.FastLogger;
+import xyz.e3ndr.fastloggingframework.logging.LogLevel;
+
+/**
+ * Queues emails instead of sending them on the request thread. A background
+ * dispatcher drains the {@link OutboxStore} in priority order, staying under the
+ * provider's quota and retrying failures with exponential backoff.
+ */
+public class EmailOutbox implements Closeable {
+    private static final long DISPATCH_INTERVAL = 500;
+    private static final int BATCH_SIZE = 25;
+    private static final long LEASE = TimeUnit.MINUTES.toMillis(2);
+
+    private static final int MAX_ATTEMPTS = 8;
+    private static final long BASE_BACKOFF = TimeUnit.SECONDS.toMillis(30);
+    private static final long MAX_BACKOFF = TimeUnit.HOURS.toMillis(1);
+
+    private static final long QUOTA_KEY = GcraRateLimiter.hash("email");
+
+    private final OutboxStore store;
+    private final EmailTransport transport;
+
+    private final GcraRateLimiter quota = new GcraRateLimiter(1);
+    private final long emissionIntervalNanos;
+    private final int burst;
+
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder retried = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor((r) -> {
+        Thread t = new Thread(r, "Mimoto - EmailOutbox");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * @param emailsPerMinute the provider's quota, per node.
+     */
+    public EmailOutbox(@NonNull OutboxStore store, @NonNull EmailTransport transport, double emailsPerMinute, int burst) {
+        if (emailsPerMinute <= 0) {
+            throw new IllegalArgumentException("emailsPerMinute must be positive.");
+        }
+
+        this.store = store;
+        this.transport = transport;
+        this.emissionIntervalNanos = (long) (TimeUnit.MINUTES.toNanos(1) / emailsPerMinute);
+        this.burst = Math.max(1, burst);
+
+        this.executor.scheduleWithFixedDelay(() -> {
+            try {
+                this.dispatch();
+            } catch (Throwable t) {
+                FastLogger.logException(t);
+            }
+        }, DISPATCH_INTERVAL, DISPATCH_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns as soon as the email is safely queued.
+     */
+    public void enqueue(@NonNull String to, @NonNull String subject, @NonNull String content, @NonNull EmailPriority priority) {
+        this.store.enqueue(to, subject, content, priority);
+    }
+
+    private void dispatch() {
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            // Check before claiming, a claim is a write to the store and so is
+            // giving it back. We're the only ones spending from this quota, so
+            // it can't run out between the peek and the acquire.
+            if (this.quota.peek(QUOTA_KEY, this.emissionIntervalNanos, this.burst, 1, System.nanoTime()) < 0) {
+                return; // Out of quota, try again next round.
+            }
+
+            OutboxEmail email = this.store.claim(LEASE);
+
+            if (email == null) {
+                return;
+            }
+
+            this.quota.acquire(QUOTA_KEY, this.emissionIntervalNanos, this.burst, 1, System.nanoTime());
+
+            try {
+                this.transport.send(email.getTo(), email.getSubject(), email.getContent());
+            } catch (Throwable t) {
+                this.onFailure(email, t);
+                continue;
+            }
+
+            // Right away, a slow batch could otherwise outlive this email's lease and
+            // get it sent again by another node.
+            this.store.markSent(email);
+            this.sent.increment();
+        }
+    }
+
+    private void onFailure(OutboxEmail email, Throwable t) {
+        String error = t.getClass().getSimpleName() + ": " + t.getMessage();
+        int attempts = email.getAttempts() + 1;
+
+        if (attempts >= MAX_ATTEMPTS) {
+            this.failed.increment();
+            this.store.markFailed(email, error);
+            FastLogger.logStatic(LogLevel.SEVERE, "Giving up on %s after %d attempts: %s", email, attempts, error);
+        } else {
+            long backoff = Math.min(MAX_BACKOFF, BASE_BACKOFF << (attempts - 1));
+
+            // +-20% so a provider outage doesn't make everything retry at once.
+            backoff += (long) (backoff * ThreadLocalRandom.current().nextDouble(-0.2, 0.2));
+
+            this.retried.increment();
+            this.store.retryLater(email, System.currentTimeMillis() + backoff, error);
+            FastLogger.logStatic(LogLevel.WARNING, "Couldn't send %s (attempt %d), retrying in %dms: %s", email, attempts, backoff, error);
+        }
+    }
+
+    public long getPendingCount() {
+        return this.store.getPendingCount();
+    }
+
+    public long getSent() {
+        return this.sent.sum();
+    }
+
+    public long getRetried() {
+        return this.retried.sum();
+    }
+
+    public long getFailed() {
+        return this.failed.sum();
+    }
+
+    @Override
+    public void close() {
+        this.executor.shutdown();
+    }
+
+}
@@ -0,0 +1,16 @@
+package co.casterlabs.mimoto.email;
+
+/**
+ * Lower ordinals get sent first.
+ */
+public enum EmailPriority {
+    /**
+     * Someone is actively waiting on this, e.g a password reset.
+     */
+    HIGH,
+
+    NORMAL,
+
+    LOW;
+
+}
@@ -0,0 +1,114 @@
+package co.casterlabs.mimoto.email;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import co.casterlabs.mimoto.util.HtmlUtil;
+import lombok.Getter;
+import lombok.NonNull;
+
+/**
+ * An html template compiled into literal chunks and %placeholder% slots, so
+ * rendering is one pass into a presized builder instead of a full copy of the
+ * template per replacement. Every slot value is html escaped as it's written.
+ */
+public class EmailTemplate {
+    private final String[] literals; // One more than there are slots.
+    private final String[] slots;
+    private final int literalLength;
+
+    private @Getter final Set<String> slotNames;
+
+    private EmailTemplate(String[] literals, String[] slots) {
+        this.literals = literals;
+        this.slots = slots;
+
+        int literalLength = 0;
+        for (String literal : literals) {
+            literalLength += literal.length();
+        }
+        this.literalLength = literalLength;
+
+        Set<String> slotNames = new LinkedHashSet<>();
+        Collections.addAll(slotNames, slots);
+        this.slotNames = Collections.unmodifiableSet(slotNames);
+    }
+
+    /**
+     * Missing values are left as the literal placeholder, same as
+     * {@link String#replace(CharSequence, CharSequence)} would.
+     */
+    public String render(@NonNull Map<String, String> values) {
+        int valueLength = 0;
+        for (String value : values.values()) {
+            valueLength += value.length();
+        }
+
+        // Leave some room for escaping.
+        StringBuilder sb = new StringBuilder(this.literalLength + valueLength + (valueLength >> 2));
+
+        for (int i = 0; i < this.slots.length; i++) {
+            sb.append(this.literals[i]);
+
+            String value = values.get(this.slots[i]);
+
+            if (value == null) {
+                sb.append('%').append(this.slots[i]).append('%');
+            } else {
+                HtmlUtil.escapeHtml(value, sb);
+            }
+        }
+
+        return sb.append(this.literals[this.slots.length]).toString();
+    }
+
+    public static EmailTemplate compile(@NonNull String source) {
+        List<String> literals = new ArrayList<>();
+        List<String> slots = new ArrayList<>();
+
+        int literalStart = 0;
+        int idx = source.indexOf('%');
+
+        while (idx != -1) {
+            int end = findSlotEnd(source, idx + 1);
+
+            if (end == -1) {
+                // Not a placeholder (e.g a css "100%"), keep looking from the next %.
+                idx = source.indexOf('%', idx + 1);
+                continue;
+            }
+
+            literals.add(source.substring(literalStart, idx));
+            slots.add(source.substring(idx + 1, end));
+
+            literalStart = end + 1;
+            idx = source.indexOf('%', literalStart);
+        }
+
+        literals.add(source.substring(literalStart));
+
+        return new EmailTemplate(literals.toArray(new String[0]), slots.toArray(new String[0]));
+    }
+
+    /**
+     * @return the index of the closing %, or -1 if this isn't a placeholder.
+     */
+    private static int findSlotEnd(String source, int start) {
+        for (int i = start; i < source.length(); i++) {
+            char c = source.charAt(i);
+
+            if (c == '%') {
+                return (i == start) ? -1 : i;
+            } else if (!(((c >= 'a') && (c <= 'z')) || ((c >= 'A') && (c <= 'Z')) || ((c >= '0') && (c <= '9')) || (c == '.') || (c == '_'))) {
+                return -1;
+            }
+        }
+
+        return -1;
+    }
+
+}
@@ -0,0 +1,93 @@
+package co.casterlabs.mimoto.email;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import co.casterlabs.mimoto.util.FileUtil;
+import lombok.NonNull;
+import xyz.e3ndr.fastloggingframework.logging.FastLogger;
+import xyz.e3ndr.fastloggingframework.logging.LogLevel;
+
+/**
+ * Loads and compiles templates by file name. A file with the same name in the
+ * override directory wins over the bundled resource, and is recompiled whenever
+ * its modification time changes, so templates can be edited without a restart.
+ */
+public class EmailTemplates {
+    private static final long CHECK_INTERVAL = 1000;
+
+    private final File directory;
+    private final Map<String, Entry> templates = new ConcurrentHashMap<>();
+
+    /**
+     * @param directory where to look for overrides, doesn't need to exist.
+     */
+    public EmailTemplates(@NonNull File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * @throws IOException if the template has never loaded successfully.
+     */
+    public EmailTemplate get(@NonNull String name) throws IOException {
+        Entry entry = this.templates.get(name);
+        long now = System.currentTimeMillis();
+
+        if ((entry != null) && ((now - entry.checkedAt) < CHECK_INTERVAL)) {
+            return entry.template;
+        }
+
+        synchronized (this) {
+            entry = this.templates.get(name);
+
+            if ((entry != null) && ((now - entry.checkedAt) < CHECK_INTERVAL)) {
+                return entry.template;
+            }
+
+            File file = new File(this.directory, name);
+            long lastModified = file.isFile() ? file.lastModified() : 0;
+
+            if ((entry != null) && (entry.lastModified == lastModified)) {
+                entry.checkedAt = now;
+                return entry.template;
+            }
+
+            try {
+                String source = (lastModified == 0) ? FileUtil.loadResource(name) : FileUtil.read(file);
+
+                if (entry != null) {
+                    FastLogger.logStatic(LogLevel.INFO, "Reloaded email template %s.", name);
+                }
+
+                entry = new Entry(EmailTemplate.compile(source), lastModified, now);
+                this.templates.put(name, entry);
+            } catch (IOException e) {
+                if (entry == null) {
+                    throw e;
+                }
+
+                // Probably caught mid-write, keep the old one and try again next check.
+                FastLogger.logStatic(LogLevel.WARNING, "Could not reload email template %s, keeping the previous version: %s", name, e);
+                entry.checkedAt = now;
+            }
+
+            return entry.template;
+        }
+    }
+
+    private static class Entry {
+        private final EmailTemplate template;
+        private final long lastModified; // 0 for the bundled resource.
+        private volatile long checkedAt;
+
+        private Entry(EmailTemplate template, long lastModified, long checkedAt) {
+            this.template = template;
+            this.lastModified = lastModified;
+            this.checkedAt = checkedAt;
+        }
+
+    }
+
+}
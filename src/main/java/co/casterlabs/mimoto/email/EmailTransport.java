@@ -0,0 +1,21 @@
+package co.casterlabs.mimoto.email;
+
+import java.io.Closeable;
+
+import lombok.NonNull;
+
+/**
+ * How emails actually leave the building. The {@link EmailOutbox} is the only
+ * caller, so implementations only need to be safe for one thread at a time.
+ */
+public interface EmailTransport extends Closeable {
+
+    /**
+     * Throws if the provider didn't take the email, the outbox will retry it.
+     */
+    public void send(@NonNull String to, @NonNull String subject, @NonNull String htmlContent) throws Exception;
+
+    @Override
+    default void close() {}
+
+}
@@ -0,0 +1,101 @@
+package co.casterlabs.mimoto.email;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jetbrains.annotations.Nullable;
+
+import lombok.NonNull;
+import xyz.e3ndr.fastloggingframework.logging.FastLogger;
+import xyz.e3ndr.fastloggingframework.logging.LogLevel;
+
+/**
+ * For single node deployments without Mongo. Nothing survives a restart, but
+ * the request path still doesn't wait on the provider.
+ */
+public class MemoryOutboxStore implements OutboxStore {
+    private static final int MAX_QUEUED = 10_000;
+
+    private final AtomicLong nextId = new AtomicLong();
+
+    private static final Comparator<Entry> ORDER = Comparator
+        .comparingInt((Entry e) -> e.email.getPriority().ordinal())
+        .thenComparingLong((e) -> e.nextAttemptAt);
+
+    // Guarded by this. It's small and emails are rare, so a scan is fine.
+    private final List<Entry> queue = new ArrayList<>();
+
+    @Override
+    public synchronized void enqueue(@NonNull String to, @NonNull String subject, @NonNull String content, @NonNull EmailPriority priority) {
+        if (this.queue.size() >= MAX_QUEUED) {
+            throw new IllegalStateException("The email outbox is full.");
+        }
+
+        OutboxEmail email = new OutboxEmail(Long.toString(this.nextId.incrementAndGet()), to, subject, content, priority, 0);
+
+        this.queue.add(new Entry(email, System.currentTimeMillis()));
+    }
+
+    /**
+     * Emails are handed out exactly once here, so there's no lease to keep track
+     * of.
+     */
+    @Override
+    public synchronized @Nullable OutboxEmail claim(long leaseMillis) {
+        long now = System.currentTimeMillis();
+
+        Entry best = null;
+
+        for (Entry entry : this.queue) {
+            if ((entry.nextAttemptAt <= now) && ((best == null) || (ORDER.compare(entry, best) < 0))) {
+                best = entry;
+            }
+        }
+
+        if (best == null) {
+            return null;
+        }
+
+        this.queue.remove(best);
+        return best.email;
+    }
+
+    @Override
+    public synchronized void release(@NonNull OutboxEmail email) {
+        this.queue.add(new Entry(email, 0));
+    }
+
+    @Override
+    public void markSent(@NonNull OutboxEmail email) {}
+
+    @Override
+    public synchronized void retryLater(@NonNull OutboxEmail email, long retryAt, @Nullable String error) {
+        OutboxEmail retry = new OutboxEmail(email.getId(), email.getTo(), email.getSubject(), email.getContent(), email.getPriority(), email.getAttempts() + 1);
+
+        this.queue.add(new Entry(retry, retryAt));
+    }
+
+    @Override
+    public void markFailed(@NonNull OutboxEmail email, @Nullable String error) {
+        FastLogger.logStatic(LogLevel.SEVERE, "Gave up on sending %s: %s", email, error);
+    }
+
+    @Override
+    public synchronized long getPendingCount() {
+        return this.queue.size();
+    }
+
+    private static class Entry {
+        private final OutboxEmail email;
+        private final long nextAttemptAt;
+
+        private Entry(OutboxEmail email, long nextAttemptAt) {
+            this.email = email;
+            this.nextAttemptAt = nextAttemptAt;
+        }
+
+    }
+
+}
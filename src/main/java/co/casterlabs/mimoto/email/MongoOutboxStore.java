@@ -0,0 +1,168 @@
+package co.casterlabs.mimoto.email;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+import org.jetbrains.annotations.Nullable;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.ReturnDocument;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.Updates;
+
+import co.casterlabs.mimoto.util.CryptoUtil;
+import lombok.NonNull;
+
+/**
+ * Keeps the outbox in a collection so queued emails survive restarts and can be
+ * sent by any node. Claims are leases, if a node dies mid-send the email goes
+ * back to the pool once the lease runs out. Sent and failed emails stick around
+ * for a while (see the TTL index on expiresAt) for debugging.
+ */
+public class MongoOutboxStore implements OutboxStore {
+    private static final long KEEP_FINISHED = TimeUnit.DAYS.toMillis(7);
+
+    private static final String PENDING = "pending";
+    private static final String SENDING = "sending";
+    private static final String SENT = "sent";
+    private static final String FAILED = "failed";
+
+    private static final Bson CLAIM_ORDER = Sorts.ascending("priority", "nextAttemptAt");
+    private static final FindOneAndUpdateOptions CLAIM_OPTIONS = new FindOneAndUpdateOptions()
+        .sort(CLAIM_ORDER)
+        .returnDocument(ReturnDocument.AFTER);
+
+    private final String nodeId = new String(CryptoUtil.generateRandomId());
+
+    private final MongoCollection<Document> collection;
+
+    public MongoOutboxStore(@NonNull MongoCollection<Document> collection) {
+        this.collection = collection;
+    }
+
+    @Override
+    public void enqueue(@NonNull String to, @NonNull String subject, @NonNull String content, @NonNull EmailPriority priority) {
+        Date now = new Date();
+
+        this.collection.insertOne(
+            new Document("to", to)
+                .append("subject", subject)
+                .append("content", content)
+                .append("priority", priority.ordinal())
+                .append("state", PENDING)
+                .append("attempts", 0)
+                .append("createdAt", now)
+                .append("nextAttemptAt", now)
+        );
+    }
+
+    @Override
+    public @Nullable OutboxEmail claim(long leaseMillis) {
+        Date now = new Date();
+
+        Document document = this.collection.findOneAndUpdate(
+            Filters.or(
+                Filters.and(Filters.eq("state", PENDING), Filters.lte("nextAttemptAt", now)),
+                Filters.and(Filters.eq("state", SENDING), Filters.lt("leasedUntil", now)) // Someone died mid-send.
+            ),
+            Updates.combine(
+                Updates.set("state", SENDING),
+                Updates.set("leasedBy", this.nodeId),
+                Updates.set("leasedUntil", new Date(now.getTime() + leaseMillis))
+            ),
+            CLAIM_OPTIONS
+        );
+
+        if (document == null) {
+            return null;
+        }
+
+        return new OutboxEmail(
+            document.getObjectId("_id").toHexString(),
+            document.getString("to"),
+            document.getString("subject"),
+            document.getString("content"),
+            EmailPriority.values()[document.getInteger("priority", EmailPriority.NORMAL.ordinal())],
+            document.getInteger("attempts", 0)
+        );
+    }
+
+    @Override
+    public void release(@NonNull OutboxEmail email) {
+        this.collection.updateOne(
+            this.leased(email),
+            Updates.combine(
+                Updates.set("state", PENDING),
+                Updates.unset("leasedBy"),
+                Updates.unset("leasedUntil")
+            )
+        );
+    }
+
+    @Override
+    public void markSent(@NonNull OutboxEmail email) {
+        Date now = new Date();
+
+        this.collection.updateOne(
+            this.leased(email),
+            Updates.combine(
+                Updates.set("state", SENT),
+                Updates.set("sentAt", now),
+                Updates.inc("attempts", 1),
+                Updates.set("expiresAt", new Date(now.getTime() + KEEP_FINISHED)),
+                Updates.unset("content"), // No reason to keep the secrets around.
+                Updates.unset("leasedBy"),
+                Updates.unset("leasedUntil")
+            )
+        );
+    }
+
+    @Override
+    public void retryLater(@NonNull OutboxEmail email, long retryAt, @Nullable String error) {
+        this.collection.updateOne(
+            this.leased(email),
+            Updates.combine(
+                Updates.set("state", PENDING),
+                Updates.inc("attempts", 1),
+                Updates.set("nextAttemptAt", new Date(retryAt)),
+                Updates.set("lastError", error),
+                Updates.unset("leasedBy"),
+                Updates.unset("leasedUntil")
+            )
+        );
+    }
+
+    @Override
+    public void markFailed(@NonNull OutboxEmail email, @Nullable String error) {
+        this.collection.updateOne(
+            this.leased(email),
+            Updates.combine(
+                Updates.set("state", FAILED),
+                Updates.inc("attempts", 1),
+                Updates.set("lastError", error),
+                Updates.set("expiresAt", new Date(System.currentTimeMillis() + KEEP_FINISHED)),
+                Updates.unset("content"),
+                Updates.unset("leasedBy"),
+                Updates.unset("leasedUntil")
+            )
+        );
+    }
+
+    @Override
+    public long getPendingCount() {
+        return this.collection.countDocuments(Filters.in("state", PENDING, SENDING));
+    }
+
+    /**
+     * Only touch the email if our lease is still the current one.
+     */
+    private Bson leased(OutboxEmail email) {
+        return Filters.and(Filters.eq("_id", new ObjectId(email.getId())), Filters.eq("leasedBy", this.nodeId));
+    }
+
+}
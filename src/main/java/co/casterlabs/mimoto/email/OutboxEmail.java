@@ -0,0 +1,26 @@
+package co.casterlabs.mimoto.email;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+@Getter
+@ToString
+@AllArgsConstructor
+public class OutboxEmail {
+    private final String id;
+
+    private final String to;
+    private final String subject;
+
+    @ToString.Exclude
+    private final String content; // Contains links with secrets in them, so keep it out of the logs.
+
+    private final EmailPriority priority;
+
+    /**
+     * How many times sending has already been tried.
+     */
+    private final int attempts;
+
+}
@@ -0,0 +1,35 @@
+package co.casterlabs.mimoto.email;
+
+import org.jetbrains.annotations.Nullable;
+
+import lombok.NonNull;
+
+/**
+ * Where queued emails wait until the {@link EmailOutbox} gets to them.
+ */
+public interface OutboxStore {
+
+    public void enqueue(@NonNull String to, @NonNull String subject, @NonNull String content, @NonNull EmailPriority priority);
+
+    /**
+     * Takes the most important email that's due, so nobody else sends it.
+     * 
+     * @param leaseMillis how long until the claim lapses, in case we die while
+     *                    sending.
+     */
+    public @Nullable OutboxEmail claim(long leaseMillis);
+
+    /**
+     * Gives back a claimed email without counting it as an attempt.
+     */
+    public void release(@NonNull OutboxEmail email);
+
+    public void markSent(@NonNull OutboxEmail email);
+
+    public void retryLater(@NonNull OutboxEmail email, long retryAt, @Nullable String error);
+
+    public void markFailed(@NonNull OutboxEmail email, @Nullable String error);
+
+    public long getPendingCount();
+
+}
@@ -0,0 +1,151 @@
+package co.casterlabs.mimoto.email;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.UUID;
+
+import lombok.NonNull;
+
+/**
+ * A bare-bones SMTP client for local sinks (MailHog, a relay on localhost,
+ * etc.), meant for development and load testing. There's no TLS or auth, so
+ * don't point this at anything across the network. The connection is kept open
+ * between sends and reopened if the server drops it.
+ */
+public class SmtpEmailTransport implements EmailTransport {
+    private static final int TIMEOUT = 10_000;
+    private static final int LINE_LENGTH = 76;
+
+    private final String host;
+    private final int port;
+    private final String fromAddress;
+
+    private Socket socket;
+    private BufferedReader in;
+    private OutputStream out;
+
+    public SmtpEmailTransport(@NonNull String host, int port, @NonNull String fromAddress) {
+        this.host = host;
+        this.port = port;
+        this.fromAddress = fromAddress;
+    }
+
+    @Override
+    public synchronized void send(@NonNull String to, @NonNull String subject, @NonNull String htmlContent) throws IOException {
+        boolean reused = this.socket != null;
+
+        try {
+            this.send0(to, subject, htmlContent);
+        } catch (IOException e) {
+            this.disconnect();
+
+            if (!reused) {
+                throw e;
+            }
+
+            // The server probably timed out our idle connection, try once on a fresh one.
+            try {
+                this.send0(to, subject, htmlContent);
+            } catch (IOException e2) {
+                this.disconnect();
+                throw e2;
+            }
+        }
+    }
+
+    private void send0(String to, String subject, String htmlContent) throws IOException {
+        if (this.socket == null) {
+            this.connect();
+        }
+
+        this.command("MAIL FROM:<" + this.fromAddress + ">", 250);
+        this.command("RCPT TO:<" + to + ">", 250);
+        this.command("DATA", 354);
+
+        StringBuilder message = new StringBuilder()
+            .append("From: ").append(this.fromAddress).append("\r\n")
+            .append("To: ").append(to).append("\r\n")
+            .append("Subject: =?UTF-8?B?").append(Base64.getEncoder().encodeToString(subject.getBytes(StandardCharsets.UTF_8))).append("?=\r\n")
+            .append("Message-ID: <").append(UUID.randomUUID()).append('@').append(this.host).append(">\r\n")
+            .append("MIME-Version: 1.0\r\n")
+            .append("Content-Type: text/html; charset=UTF-8\r\n")
+            .append("Content-Transfer-Encoding: base64\r\n")
+            .append("\r\n");
+
+        // Base64 never produces a leading '.', so no dot-stuffing needed.
+        String body = Base64.getEncoder().encodeToString(htmlContent.getBytes(StandardCharsets.UTF_8));
+
+        for (int i = 0; i < body.length(); i += LINE_LENGTH) {
+            message.append(body, i, Math.min(body.length(), i + LINE_LENGTH)).append("\r\n");
+        }
+
+        message.append(".");
+
+        this.command(message.toString(), 250);
+    }
+
+    private void connect() throws IOException {
+        this.socket = new Socket();
+        this.socket.connect(new InetSocketAddress(this.host, this.port), TIMEOUT);
+        this.socket.setSoTimeout(TIMEOUT);
+
+        this.in = new BufferedReader(new InputStreamReader(this.socket.getInputStream(), StandardCharsets.US_ASCII));
+        this.out = this.socket.getOutputStream();
+
+        this.expect(220);
+        this.command("EHLO " + this.socket.getLocalAddress().getHostName(), 250);
+    }
+
+    private void command(String line, int expected) throws IOException {
+        this.out.write((line + "\r\n").getBytes(StandardCharsets.UTF_8));
+        this.out.flush();
+        this.expect(expected);
+    }
+
+    private void expect(int expected) throws IOException {
+        String line;
+
+        // Multi-line replies have a '-' after the code on every line but the last.
+        do {
+            line = this.in.readLine();
+
+            if (line == null) {
+                throw new IOException("SMTP server closed the connection.");
+            }
+        } while ((line.length() > 3) && (line.charAt(3) == '-'));
+
+        if (!line.startsWith(String.valueOf(expected))) {
+            throw new IOException("Unexpected SMTP reply (wanted " + expected + "): " + line);
+        }
+    }
+
+    private void disconnect() {
+        if (this.socket != null) {
+            try {
+                this.socket.close();
+            } catch (IOException ignored) {}
+
+            this.socket = null;
+            this.in = null;
+            this.out = null;
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (this.socket != null) {
+            try {
+                this.command("QUIT", 221);
+            } catch (IOException ignored) {}
+
+            this.disconnect();
+        }
+    }
+
+}
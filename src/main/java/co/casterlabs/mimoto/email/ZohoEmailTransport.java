@@ -0,0 +1,207 @@
+package co.casterlabs.mimoto.email;
+
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import co.casterlabs.rakurai.json.Rson;
+import co.casterlabs.rakurai.json.element.JsonObject;
+import lombok.NonNull;
+import okhttp3.ConnectionPool;
+import okhttp3.FormBody;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import xyz.e3ndr.fastloggingframework.logging.FastLogger;
+
+/**
+ * Sends through Zoho Mail's REST api on one shared OkHttp client, so
+ * connections (and TLS sessions) get reused between sends. The OAuth access
+ * token is refreshed in the background well before it expires, so sends never
+ * have to wait on it (unless Zoho revokes it early, then we refresh and retry
+ * once).
+ */
+public class ZohoEmailTransport implements EmailTransport {
+    private static final MediaType JSON = MediaType.get("application/json; charset=utf-8");
+
+    private static final double REFRESH_AT = 0.8; // Of the token's lifetime.
+    private static final long REFRESH_RETRY = TimeUnit.SECONDS.toMillis(30);
+
+    private final OkHttpClient client = new OkHttpClient.Builder()
+        .connectionPool(new ConnectionPool(4, 5, TimeUnit.MINUTES))
+        .connectTimeout(10, TimeUnit.SECONDS)
+        .readTimeout(30, TimeUnit.SECONDS)
+        .build();
+
+    private final String accountsUrl;
+    private final String mailUrl;
+    private final String refreshToken;
+    private final String clientId;
+    private final String clientSecret;
+
+    private final String accountId;
+    private final String fromAddress;
+
+    private volatile String accessToken;
+
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder totalLatencyNanos = new LongAdder();
+    private final AtomicLong maxLatencyNanos = new AtomicLong();
+    private final LongAdder tokenRefreshes = new LongAdder();
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor((r) -> {
+        Thread t = new Thread(r, "Mimoto - ZohoEmailTransport");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * @param accountId   the Zoho Mail account to send from.
+     * @param fromAddress the address to send as.
+     */
+    public ZohoEmailTransport(@NonNull String accountsUrl, @NonNull String mailUrl, @NonNull String refreshToken, @NonNull String clientId, @NonNull String clientSecret, @NonNull String accountId, @NonNull String fromAddress) throws IOException {
+        this.accountsUrl = accountsUrl;
+        this.mailUrl = mailUrl;
+        this.refreshToken = refreshToken;
+        this.clientId = clientId;
+        this.clientSecret = clientSecret;
+        this.accountId = accountId;
+        this.fromAddress = fromAddress;
+
+        this.scheduleRefresh(this.refreshAccessToken());
+    }
+
+    @Override
+    public void send(@NonNull String to, @NonNull String subject, @NonNull String htmlContent) throws IOException {
+        String body = new JsonObject()
+            .put("fromAddress", this.fromAddress)
+            .put("toAddress", to)
+            .put("subject", subject)
+            .put("content", htmlContent)
+            .put("mailFormat", "html")
+            .toString();
+
+        long start = System.nanoTime();
+
+        try {
+            int code = this.post(body);
+
+            if (code == 401) {
+                // Zoho revoked the token early, grab a new one and try once more.
+                this.refreshAccessToken();
+                code = this.post(body);
+            }
+
+            if ((code < 200) || (code > 299)) {
+                throw new IOException("Zoho responded with " + code);
+            }
+
+            this.sent.increment();
+        } catch (IOException e) {
+            this.failed.increment();
+            throw e;
+        } finally {
+            long latency = System.nanoTime() - start;
+
+            this.totalLatencyNanos.add(latency);
+            this.maxLatencyNanos.accumulateAndGet(latency, Math::max);
+        }
+    }
+
+    private int post(String body) throws IOException {
+        Request request = new Request.Builder()
+            .url(this.mailUrl + "/api/accounts/" + this.accountId + "/messages")
+            .header("Authorization", "Zoho-oauthtoken " + this.accessToken)
+            .post(RequestBody.create(body, JSON))
+            .build();
+
+        try (Response response = this.client.newCall(request).execute()) {
+            return response.code();
+        }
+    }
+
+    /**
+     * @return the new token's lifetime, in millis.
+     */
+    private synchronized long refreshAccessToken() throws IOException {
+        Request request = new Request.Builder()
+            .url(this.accountsUrl + "/oauth/v2/token")
+            .post(
+                new FormBody.Builder()
+                    .add("refresh_token", this.refreshToken)
+                    .add("client_id", this.clientId)
+                    .add("client_secret", this.clientSecret)
+                    .add("grant_type", "refresh_token")
+                    .build()
+            )
+            .build();
+
+        try (Response response = this.client.newCall(request).execute()) {
+            JsonObject json = Rson.DEFAULT.fromJson(response.body().string(), JsonObject.class);
+
+            if (!response.isSuccessful() || !json.containsKey("access_token")) {
+                throw new IOException("Could not refresh the Zoho access token: " + response.code() + " " + json.getString("error"));
+            }
+
+            this.accessToken = json.getString("access_token");
+            this.tokenRefreshes.increment();
+
+            return TimeUnit.SECONDS.toMillis(json.containsKey("expires_in") ? json.getNumber("expires_in").longValue() : 3600);
+        }
+    }
+
+    private void scheduleRefresh(long lifetimeMillis) {
+        this.executor.schedule(() -> {
+            try {
+                this.scheduleRefresh(this.refreshAccessToken());
+            } catch (Throwable t) {
+                FastLogger.logException(t);
+                this.scheduleRefresh(REFRESH_RETRY);
+            }
+        }, (long) (lifetimeMillis * REFRESH_AT), TimeUnit.MILLISECONDS);
+    }
+
+    public long getSent() {
+        return this.sent.sum();
+    }
+
+    public long getFailed() {
+        return this.failed.sum();
+    }
+
+    public double getAverageLatencyMillis() {
+        long count = this.sent.sum() + this.failed.sum();
+
+        return (count == 0) ? 0 : (this.totalLatencyNanos.sum() / (double) count) / 1_000_000d;
+    }
+
+    public double getMaxLatencyMillis() {
+        return this.maxLatencyNanos.get() / 1_000_000d;
+    }
+
+    public long getTokenRefreshes() {
+        return this.tokenRefreshes.sum();
+    }
+
+    public int getPooledConnections() {
+        return this.client.connectionPool().connectionCount();
+    }
+
+    public int getIdleConnections() {
+        return this.client.connectionPool().idleConnectionCount();
+    }
+
+    @Override
+    public void close() {
+        this.executor.shutdownNow();
+        this.client.dispatcher().executorService().shutdown();
+        this.client.connectionPool().evictAll();
+    }
+
+}
@@ -1,14 +1,19 @@
 package co.casterlabs.mimoto.preprocess;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
-import java.util.Map;
 
 import org.jetbrains.annotations.Nullable;
 
 import co.casterlabs.mimoto.accounts.Account;
+import co.casterlabs.mimoto.accounts.AuthPrincipal;
+import co.casterlabs.mimoto.accounts.SignedTokens;
+import co.casterlabs.mimoto.accounts.TokenClaims;
+import co.casterlabs.mimoto.session.GcraRateLimiter;
 import co.casterlabs.mimoto.session.SessionMeta;
 import co.casterlabs.mimoto.session.SessionUtil;
+import co.casterlabs.mimoto.util.ServiceOverloadedException;
 import co.casterlabs.rakurai.io.http.StandardHttpStatus;
 import co.casterlabs.rakurai.io.http.server.HttpResponse;
 import co.casterlabs.rakurai.json.Rson;
@@ -27,10 +32,41 @@ public class MimotoPreProcessor implements HttpPreProcessor<MimotoPreProcessorCo
     private static final String AUTH_REQUIRED_ERROR = "AUTHORIZATION_REQUIRED";
     private static final String EMAIL_NOT_VERIFIED_ERROR = "ACCOUNT_EMAIL_NOT_VERIFIED";
 
+    private static final long ACCOUNT_QUOTA_SALT = GcraRateLimiter.hash("account");
+
+    private static final int MAX_BODY_SIZE = 64 * 1024; // Nothing we accept comes anywhere near this.
+
     @Override
     public @Nullable HttpResponse preprocessHttpSession(MimotoPreProcessorConfig data, @NonNull SoraHttpSession session) {
         try {
-            HttpResponse requestLintResponse = lintSession(data, session);
+            // Drop anyone serving a ban before doing any other work.
+            String ip = session.getRemoteIpAddress();
+
+            if ((ip != null) && SessionUtil.getPenaltyBox().isBanned(ip, System.currentTimeMillis())) {
+                return SessionUtil.createTooManyRequestsResponse(new SessionMeta(ip, -1, false));
+            }
+
+            // Parse the body once, the linter and the route both read from this.
+            ValidationPlan plan = ValidationPlan.of(data);
+            JsonObject body = null;
+
+            if (session.hasBody()) {
+                if (getDeclaredLength(session) < 0) {
+                    return SessionUtil.create(null, StandardHttpStatus.LENGTH_REQUIRED, "A Content-Length is required.", "LENGTH_REQUIRED");
+                }
+
+                byte[] bodyBytes = readBodyBytes(session);
+
+                if (bodyBytes == null) {
+                    return SessionUtil.create(null, StandardHttpStatus.PAYLOAD_TOO_LARGE, String.format("The body must be under %d bytes.", MAX_BODY_SIZE), "PAYLOAD_TOO_LARGE");
+                }
+
+                body = Rson.DEFAULT.fromJson(new String(bodyBytes, StandardCharsets.UTF_8), JsonObject.class);
+            } else if (plan.isNeedsBody()) {
+                return SessionUtil.create(null, StandardHttpStatus.BAD_REQUEST, "Missing request body.", "BAD_REQUEST");
+            }
+
+            HttpResponse requestLintResponse = lintSession(plan, session, body);
             if (requestLintResponse != null) {
                 return requestLintResponse;
             }
@@ -39,11 +75,21 @@ public class MimotoPreProcessor implements HttpPreProcessor<MimotoPreProcessorCo
             SessionMeta sessionMeta = SessionUtil.getSessionMeta(session, data.shouldRateLimit());
 
             if (data.shouldRateLimit() && sessionMeta.shouldBlock()) {
-                return SessionUtil.createTooManyRequestsResponse(sessionMeta);
+                return strikeTooManyRequests(sessionMeta);
+            }
+
+            QuotaPolicy quota = data.getQuota();
+
+            if ((quota != null) && (quota.getScope() != QuotaPolicy.Scope.ACCOUNT)) {
+                sessionMeta = SessionUtil.applyQuota(sessionMeta, quota, getQuotaKey(quota, data, sessionMeta, null));
+
+                if (sessionMeta.shouldBlock()) {
+                    return strikeTooManyRequests(sessionMeta);
+                }
             }
 
             // Auth
-            Account account = null;
+            AuthPrincipal principal = null;
 
             if (data.doAuth()) {
                 String token = session.getHeader("Authorization");
@@ -55,114 +101,196 @@ public class MimotoPreProcessor implements HttpPreProcessor<MimotoPreProcessorCo
                 } else {
                     token = token.substring("Bearer ".length());
 
+                    // Signed tokens can be checked (and rejected) before we ever touch the
+                    // database.
+                    TokenClaims claims = null;
+                    String accountId;
+
+                    if (SignedTokens.isSignedToken(token)) {
+                        claims = SignedTokens.verify(token);
+
+                        if (claims == null) {
+                            return SessionUtil.create(sessionMeta, StandardHttpStatus.UNAUTHORIZED, null, INVALID_AUTH_ERROR);
+                        }
+
+                        accountId = claims.getAccountId();
+                    } else {
+                        accountId = Account.getAccountIdFromToken(token);
+                    }
+
                     // Lookup the account by the token.
-                    String accountId = Account.getAccountIdFromToken(token);
-                    account = Account.lookupAccountById(accountId);
+                    principal = (accountId == null) ? null : AuthPrincipal.lookupById(accountId);
 
-                    if (account == null) {
+                    if (principal == null) {
                         // Check to see if auth is *required*
                         if (data.requireAuth()) {
                             return SessionUtil.create(sessionMeta, StandardHttpStatus.UNAUTHORIZED, null, INVALID_AUTH_ERROR, AUTH_REQUIRED_ERROR);
                         }
                     } else {
+                        boolean isTokenValid = (claims == null) ? principal.isTokenValid(token) : principal.isTokenValid(claims);
+
+                        // An email can't become unverified, so a verified claim is always
+                        // good. Otherwise the account might've been verified since the token
+                        // was issued.
+                        boolean isEmailVerified = ((claims != null) && claims.isEmailVerified()) || principal.isEmailVerified();
+
                         // See if the token is valid.
-                        if (!account.isTokenValid(token)) {
-                            account = null;
+                        if (!isTokenValid) {
                             return SessionUtil.create(sessionMeta, StandardHttpStatus.UNAUTHORIZED, null, INVALID_AUTH_ERROR);
                         }
 
                         // Check if email verification is required.
-                        else if (!account.isEmailVerified() && data.requireVerifiedEmail()) {
+                        else if (!isEmailVerified && data.requireVerifiedEmail()) {
                             return SessionUtil.create(sessionMeta, StandardHttpStatus.UNAUTHORIZED, null, INVALID_AUTH_ERROR, EMAIL_NOT_VERIFIED_ERROR);
                         }
                     }
                 }
             }
 
+            // Account quotas can only be checked once we know who's asking.
+            if ((quota != null) && (quota.getScope() == QuotaPolicy.Scope.ACCOUNT)) {
+                sessionMeta = SessionUtil.applyQuota(sessionMeta, quota, getQuotaKey(quota, data, sessionMeta, principal));
+
+                if (sessionMeta.shouldBlock()) {
+                    return strikeTooManyRequests(sessionMeta);
+                }
+            }
+
             // Attach the data and let Sora continue it's happy sequence :^)
-            session.setAttachment(new MimotoRequestData(account, sessionMeta));
+            session.setAttachment(new MimotoRequestData(principal, sessionMeta, body));
             return null;
         } catch (JsonParseException e) {
             return SessionUtil.create(null, StandardHttpStatus.BAD_REQUEST, e.getMessage(), "BAD_REQUEST");
+        } catch (ServiceOverloadedException e) {
+            return SessionUtil.createServiceUnavailableResponse(null);
         } catch (Exception e) {
             FastLogger.logException(e);
             return SessionUtil.create(null, StandardHttpStatus.INTERNAL_ERROR, null, "INTERNAL_ERROR");
         }
     }
 
-    private static @Nullable HttpResponse lintSession(@NonNull MimotoPreProcessorConfig data, @NonNull SoraHttpSession session) throws IOException {
+    /**
+     * Every 429 counts towards getting the ip banned.
+     */
+    private static HttpResponse strikeTooManyRequests(@NonNull SessionMeta sessionMeta) {
+        if (!sessionMeta.getIp().equals("0.0.0.0")) {
+            SessionUtil.getPenaltyBox().strike(sessionMeta.getIp(), System.currentTimeMillis());
+        }
+
+        return SessionUtil.createTooManyRequestsResponse(sessionMeta);
+    }
+
+    private static long getQuotaKey(@NonNull QuotaPolicy quota, @NonNull MimotoPreProcessorConfig data, @NonNull SessionMeta sessionMeta, @Nullable AuthPrincipal principal) {
+        switch (quota.getScope()) {
+            case ACCOUNT:
+                if (principal != null) {
+                    return GcraRateLimiter.mix(GcraRateLimiter.hash(principal.getAccountId()), ACCOUNT_QUOTA_SALT);
+                }
+
+                // Unauthenticated requests get keyed by their ip instead.
+            case IP:
+                return GcraRateLimiter.hash(sessionMeta.getIp());
+
+            case IP_AND_ROUTE:
+                return GcraRateLimiter.mix(GcraRateLimiter.hash(sessionMeta.getIp()), GcraRateLimiter.hash(data.getClass().getName()));
+
+            default:
+                throw new IllegalArgumentException("Unknown quota scope: " + quota.getScope());
+        }
+    }
+
+    /**
+     * @return the Content-Length, or -1 if it's missing or garbage (e.g chunked
+     *         bodies).
+     */
+    private static long getDeclaredLength(@NonNull SoraHttpSession session) {
+        String contentLength = session.getHeader("Content-Length");
+
+        if (contentLength != null) {
+            try {
+                return Long.parseLong(contentLength.trim());
+            } catch (NumberFormatException ignored) {}
+        }
+
+        return -1;
+    }
+
+    /**
+     * Sora only hands us the body fully buffered, so the cap is enforced on the
+     * declared length before anything is read. That's also why bodies without
+     * one are refused outright instead of read and checked afterwards.
+     * 
+     * @return the body, or null if it's over {@link #MAX_BODY_SIZE}.
+     */
+    private static @Nullable byte[] readBodyBytes(@NonNull SoraHttpSession session) throws IOException {
+        if (getDeclaredLength(session) > MAX_BODY_SIZE) {
+            return null;
+        }
+
+        byte[] bytes = session.getRequestBodyBytes();
+
+        return (bytes.length > MAX_BODY_SIZE) ? null : bytes;
+    }
+
+    /**
+     * @param body required if the plan {@link ValidationPlan#isNeedsBody()}.
+     */
+    private static @Nullable HttpResponse lintSession(@NonNull ValidationPlan plan, @NonNull SoraHttpSession session, @Nullable JsonObject body) {
 
         // Check required query parameters
-        for (String requiredQueryParameter : data.getRequiredQueryParameters()) {
+        for (String requiredQueryParameter : plan.getRequiredQueryParameters()) {
             if (!session.getAllQueryParameters().containsKey(requiredQueryParameter)) {
                 return generateLintResponse(ValidationErrorType.MISSING_QUERY_PARAMETER, requiredQueryParameter, null, null);
             }
         }
 
         // Check required headers
-        for (String requiredHeader : data.getRequiredHeaders()) {
+        for (String requiredHeader : plan.getRequiredHeaders()) {
             if (!session.getHeaders().containsKey(requiredHeader)) {
                 return generateLintResponse(ValidationErrorType.MISSING_HEADER, requiredHeader, null, null);
             }
         }
 
         // Check body
-        if (!data.getRequiredBodyProperties().isEmpty()) {
-            JsonObject body = session.getRequestBodyJson(Rson.DEFAULT).getAsObject();
-
-            for (String requiredProperty : data.getRequiredBodyProperties()) {
-                if (!body.containsKey(requiredProperty)) {
-                    return generateLintResponse(ValidationErrorType.MISSING_BODY_PROPERTY, requiredProperty, null, null);
-                }
+        for (String requiredProperty : plan.getRequiredBodyProperties()) {
+            if (!body.containsKey(requiredProperty)) {
+                return generateLintResponse(ValidationErrorType.MISSING_BODY_PROPERTY, requiredProperty, null, null);
             }
         }
 
         // Check the query parameter regex
-        for (Map.Entry<String, String> entry : data.getQueryParameterRegex().entrySet()) {
-            String queryParameter = entry.getKey();
-            String regex = entry.getValue();
-
-            List<String> values = session.getAllQueryParameters().get(queryParameter);
+        for (ValidationPlan.Rule rule : plan.getQueryParameterRules()) {
+            List<String> values = session.getAllQueryParameters().get(rule.getName());
 
             if (values != null) {
                 for (String value : values) {
-                    if (!value.matches(regex)) {
-                        return generateLintResponse(ValidationErrorType.INVALID_QUERY_VALUE, queryParameter, value, regex);
+                    if (!rule.matches(value)) {
+                        return generateLintResponse(ValidationErrorType.INVALID_QUERY_VALUE, rule.getName(), value, rule.getRegex());
                     }
                 }
             }
         }
 
         // Check the header regex
-        for (Map.Entry<String, String> entry : data.getHeaderRegex().entrySet()) {
-            String header = entry.getKey();
-            String regex = entry.getValue();
-
-            List<String> values = session.getHeaders().get(header);
+        for (ValidationPlan.Rule rule : plan.getHeaderRules()) {
+            List<String> values = session.getHeaders().get(rule.getName());
 
             if (values != null) {
                 for (String value : values) {
-                    if (!value.matches(regex)) {
-                        return generateLintResponse(ValidationErrorType.INVALID_HEADER_VALUE, header, value, regex);
+                    if (!rule.matches(value)) {
+                        return generateLintResponse(ValidationErrorType.INVALID_HEADER_VALUE, rule.getName(), value, rule.getRegex());
                     }
                 }
             }
         }
 
         // Check body regex
-        if (!data.getBodyRegex().isEmpty()) {
-            JsonObject body = session.getRequestBodyJson(Rson.DEFAULT).getAsObject();
+        for (ValidationPlan.Rule rule : plan.getBodyRules()) {
+            String value = transformJE(body.get(rule.getName()));
 
-            for (Map.Entry<String, String> entry : data.getBodyRegex().entrySet()) {
-                String property = entry.getKey();
-                String regex = entry.getValue();
-
-                String value = transformJE(body.get(property));
-
-                if (value != null) {
-                    if (!value.matches(regex)) {
-                        return generateLintResponse(ValidationErrorType.INVALID_BODY_VALUE, property, value, regex);
-                    }
+            if (value != null) {
+                if (!rule.matches(value)) {
+                    return generateLintResponse(ValidationErrorType.INVALID_BODY_VALUE, rule.getName(), value, rule.getRegex());
                 }
             }
         }
@@ -4,6 +4,8 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
+import org.jetbrains.annotations.Nullable;
+
 import lombok.NonNull;
 
 public interface MimotoPreProcessorConfig {
@@ -14,6 +16,13 @@ public interface MimotoPreProcessorConfig {
 
     public boolean shouldRateLimit();
 
+    /**
+     * @return a quota to enforce on top of the global rate limit, or null for none.
+     */
+    default @Nullable QuotaPolicy getQuota() {
+        return null;
+    }
+
     /* ---------------- */
     /* Auth             */
     /* ---------------- */
@@ -28,6 +37,9 @@ public interface MimotoPreProcessorConfig {
     /* Validation       */
     /* ---------------- */
 
+    // These are read once per config class and compiled, so they must not change
+    // between instances or calls.
+
     default @NonNull List<String> getRequiredQueryParameters() {
         return Collections.emptyList();
     }
@@ -52,4 +64,19 @@ public interface MimotoPreProcessorConfig {
         return Collections.emptyMap();
     }
 
+    // Name -> a validator registered in NamedValidators, checked along with the
+    // regexes above.
+
+    default @NonNull Map<String, String> getQueryParameterValidators() {
+        return Collections.emptyMap();
+    }
+
+    default @NonNull Map<String, String> getHeaderValidators() {
+        return Collections.emptyMap();
+    }
+
+    default @NonNull Map<String, String> getBodyValidators() {
+        return Collections.emptyMap();
+    }
+
 }
@@ -3,14 +3,44 @@ package co.casterlabs.mimoto.preprocess;
 import org.jetbrains.annotations.Nullable;
 
 import co.casterlabs.mimoto.accounts.Account;
+import co.casterlabs.mimoto.accounts.AuthPrincipal;
 import co.casterlabs.mimoto.session.SessionMeta;
-import lombok.AllArgsConstructor;
+import co.casterlabs.rakurai.json.element.JsonObject;
 import lombok.Getter;
 
-@Getter
-@AllArgsConstructor
 public class MimotoRequestData {
+    private @Getter @Nullable AuthPrincipal principal;
+    private @Getter @Nullable SessionMeta sessionMeta;
+
+    /**
+     * The parsed request body, null if there wasn't one. Routes should read this
+     * instead of parsing the body again.
+     */
+    private @Getter @Nullable JsonObject body;
+
+    private boolean accountLoaded = false;
     private @Nullable Account account;
-    private @Nullable SessionMeta sessionMeta;
+
+    public MimotoRequestData(@Nullable AuthPrincipal principal, @Nullable SessionMeta sessionMeta, @Nullable JsonObject body) {
+        this.principal = principal;
+        this.sessionMeta = sessionMeta;
+        this.body = body;
+    }
+
+    /**
+     * The preprocessor only loads the {@link #getPrincipal()}, the full account is
+     * loaded the first time a route asks for it.
+     */
+    public @Nullable Account getAccount() {
+        if (!this.accountLoaded) {
+            if (this.principal != null) {
+                this.account = Account.lookupAccountById(this.principal.getAccountId());
+            }
+
+            this.accountLoaded = true;
+        }
+
+        return this.account;
+    }
 
 }
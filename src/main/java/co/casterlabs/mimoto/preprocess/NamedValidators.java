@@ -0,0 +1,47 @@
+package co.casterlabs.mimoto.preprocess;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+import org.jetbrains.annotations.Nullable;
+
+import co.casterlabs.mimoto.Mimoto;
+import co.casterlabs.mimoto.util.EmailValidator;
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NonNull;
+
+/**
+ * Hand-written validators that configs can reference by name instead of a
+ * regex, for when the regex is too slow (or too easy to abuse).
+ */
+public class NamedValidators {
+    private static final Map<String, NamedValidator> validators = new ConcurrentHashMap<>();
+
+    static {
+        // Same acceptance as the regex, so keep reporting it as the rule.
+        register("email", Mimoto.EMAIL_REGEX, EmailValidator::isValid);
+    }
+
+    /**
+     * @param rule what to tell the client the value must match.
+     */
+    public static void register(@NonNull String name, @NonNull String rule, @NonNull Predicate<String> predicate) {
+        validators.put(name, new NamedValidator(rule, predicate));
+    }
+
+    static @Nullable NamedValidator get(@NonNull String name) {
+        return validators.get(name);
+    }
+
+    @Getter(AccessLevel.PACKAGE)
+    @AllArgsConstructor(access = AccessLevel.PRIVATE)
+    static class NamedValidator {
+        private final String rule;
+        private final Predicate<String> predicate;
+
+    }
+
+}
@@ -0,0 +1,54 @@
+package co.casterlabs.mimoto.preprocess;
+
+import java.util.concurrent.TimeUnit;
+
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.ToString;
+
+/**
+ * Describes a per-endpoint quota, enforced on top of the global rate limit.
+ * Policies with the {@link Scope#IP} or {@link Scope#ACCOUNT} scope share one
+ * budget across every route that uses them, so those routes should derive their
+ * policies from the same rate and burst and only vary the cost.
+ */
+@Getter
+@ToString
+public class QuotaPolicy {
+    private final double ratePerSecond;
+    private final int burst;
+    private final @NonNull Scope scope;
+    private final int cost;
+
+    private final long emissionIntervalNanos;
+
+    /**
+     * @param ratePerSecond how many units are replenished every second.
+     * @param burst         how many units can be spent at once.
+     * @param scope         what the budget is keyed on.
+     * @param cost          how many units a single request costs.
+     */
+    public QuotaPolicy(double ratePerSecond, int burst, @NonNull Scope scope, int cost) {
+        if ((ratePerSecond <= 0) || (burst < 1) || (cost < 1) || (cost > burst)) {
+            throw new IllegalArgumentException("Invalid quota: rate=" + ratePerSecond + ", burst=" + burst + ", cost=" + cost);
+        }
+
+        this.ratePerSecond = ratePerSecond;
+        this.burst = burst;
+        this.scope = scope;
+        this.cost = cost;
+
+        this.emissionIntervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / ratePerSecond);
+    }
+
+    public QuotaPolicy withCost(int cost) {
+        return new QuotaPolicy(this.ratePerSecond, this.burst, this.scope, cost);
+    }
+
+    public static enum Scope {
+        IP,
+        ACCOUNT,
+        IP_AND_ROUTE;
+    }
+
+}
@@ -0,0 +1,90 @@
+package co.casterlabs.mimoto.preprocess;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+import co.casterlabs.mimoto.preprocess.NamedValidators.NamedValidator;
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NonNull;
+
+/**
+ * The validation rules of a {@link MimotoPreProcessorConfig}, resolved once per
+ * config class with every regex already compiled, so linting a request is just
+ * a walk over some arrays.
+ */
+@Getter(AccessLevel.PACKAGE)
+class ValidationPlan {
+    private static final Map<Class<?>, ValidationPlan> plans = new ConcurrentHashMap<>();
+
+    private final String[] requiredQueryParameters;
+    private final String[] requiredHeaders;
+    private final String[] requiredBodyProperties;
+
+    private final Rule[] queryParameterRules;
+    private final Rule[] headerRules;
+    private final Rule[] bodyRules;
+
+    private final boolean needsBody;
+
+    private ValidationPlan(MimotoPreProcessorConfig config) {
+        this.requiredQueryParameters = toArray(config.getRequiredQueryParameters());
+        this.requiredHeaders = toArray(config.getRequiredHeaders());
+        this.requiredBodyProperties = toArray(config.getRequiredBodyProperties());
+
+        this.queryParameterRules = compile(config.getQueryParameterRegex(), config.getQueryParameterValidators());
+        this.headerRules = compile(config.getHeaderRegex(), config.getHeaderValidators());
+        this.bodyRules = compile(config.getBodyRegex(), config.getBodyValidators());
+
+        this.needsBody = (this.requiredBodyProperties.length > 0) || (this.bodyRules.length > 0);
+    }
+
+    static ValidationPlan of(@NonNull MimotoPreProcessorConfig config) {
+        return plans.computeIfAbsent(config.getClass(), (c) -> new ValidationPlan(config));
+    }
+
+    private static String[] toArray(List<String> list) {
+        return list.toArray(new String[0]);
+    }
+
+    private static Rule[] compile(Map<String, String> regexes, Map<String, String> validatorNames) {
+        Rule[] rules = new Rule[regexes.size() + validatorNames.size()];
+        int idx = 0;
+
+        for (Map.Entry<String, String> entry : regexes.entrySet()) {
+            Pattern pattern = Pattern.compile(entry.getValue());
+
+            rules[idx++] = new Rule(entry.getKey(), entry.getValue(), (value) -> pattern.matcher(value).matches());
+        }
+
+        for (Map.Entry<String, String> entry : validatorNames.entrySet()) {
+            NamedValidator validator = NamedValidators.get(entry.getValue());
+
+            if (validator == null) {
+                throw new IllegalArgumentException("Unknown validator: " + entry.getValue());
+            }
+
+            rules[idx++] = new Rule(entry.getKey(), validator.getRule(), validator.getPredicate());
+        }
+
+        return rules;
+    }
+
+    @Getter(AccessLevel.PACKAGE)
+    @AllArgsConstructor(access = AccessLevel.PRIVATE)
+    static class Rule {
+        private final String name;
+        private final String regex; // For the error message.
+        private final Predicate<String> predicate;
+
+        boolean matches(@NonNull String value) {
+            return this.predicate.test(value);
+        }
+
+    }
+
+}
@@ -5,12 +5,15 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
-import co.casterlabs.mimoto.Mimoto;
+import org.jetbrains.annotations.Nullable;
+
 import co.casterlabs.mimoto.accounts.Account;
 import co.casterlabs.mimoto.preprocess.MimotoPreProcessor;
 import co.casterlabs.mimoto.preprocess.MimotoPreProcessorConfig;
 import co.casterlabs.mimoto.preprocess.MimotoRequestData;
+import co.casterlabs.mimoto.preprocess.QuotaPolicy;
 import co.casterlabs.mimoto.session.SessionUtil;
+import co.casterlabs.mimoto.util.ServiceOverloadedException;
 import co.casterlabs.rakurai.io.http.HttpMethod;
 import co.casterlabs.rakurai.io.http.StandardHttpStatus;
 import co.casterlabs.rakurai.io.http.server.HttpResponse;
@@ -23,6 +26,11 @@ import lombok.NonNull;
 import xyz.e3ndr.fastloggingframework.logging.FastLogger;
 
 public class RouteAccount implements HttpProvider {
+    // Each of these sends an email or costs a BCrypt, so keep them well away from
+    // the (hot) account endpoint's budget.
+    private static final QuotaPolicy EMAIL_QUOTA = new QuotaPolicy(0.1, 3, QuotaPolicy.Scope.IP_AND_ROUTE, 1);
+    private static final QuotaPolicy VERIFICATION_EMAIL_QUOTA = new QuotaPolicy(0.1, 3, QuotaPolicy.Scope.ACCOUNT, 1);
+    private static final QuotaPolicy RESET_QUOTA = new QuotaPolicy(0.5, 5, QuotaPolicy.Scope.IP_AND_ROUTE, 1);
 
     @HttpEndpoint(uri = "/public/v3/account", allowedMethods = {
             HttpMethod.GET
@@ -45,7 +53,7 @@ public class RouteAccount implements HttpProvider {
 
     @HttpEndpoint(uri = "/public/v3/account/sendemailverification", allowedMethods = {
             HttpMethod.POST
-    }, preprocessor = MimotoPreProcessor.ID, preprocessorData = Authorized_PreProcessorConfig.class)
+    }, preprocessor = MimotoPreProcessor.ID, preprocessorData = SendEmailVerification_PreProcessorConfig.class)
     public HttpResponse onSendEmailVerification(SoraHttpSession session) {
         MimotoRequestData requestData = session.getAttachment();
 
@@ -75,7 +83,7 @@ public class RouteAccount implements HttpProvider {
         MimotoRequestData requestData = session.getAttachment();
 
         try {
-            JsonObject body = session.getRequestBodyJson(Rson.DEFAULT).getAsObject();
+            JsonObject body = requestData.getBody();
 
             String[] verificationToken = body.getString("id").split(":", 2);
 
@@ -112,7 +120,7 @@ public class RouteAccount implements HttpProvider {
         MimotoRequestData requestData = session.getAttachment();
 
         try {
-            JsonObject body = session.getRequestBodyJson(Rson.DEFAULT).getAsObject();
+            JsonObject body = requestData.getBody();
 
             String email = body.getString("email");
 
@@ -141,7 +149,7 @@ public class RouteAccount implements HttpProvider {
         MimotoRequestData requestData = session.getAttachment();
 
         try {
-            JsonObject body = session.getRequestBodyJson(Rson.DEFAULT).getAsObject();
+            JsonObject body = requestData.getBody();
 
             String[] resetToken = body.getString("id").split(":", 2);
 
@@ -166,6 +174,8 @@ public class RouteAccount implements HttpProvider {
             } else {
                 return SessionUtil.create(requestData.getSessionMeta(), StandardHttpStatus.BAD_REQUEST, null, error);
             }
+        } catch (ServiceOverloadedException e) {
+            return SessionUtil.createServiceUnavailableResponse(requestData.getSessionMeta());
         } catch (Exception e) {
             FastLogger.logException(e);
             return SessionUtil.create(requestData.getSessionMeta(), StandardHttpStatus.INTERNAL_ERROR, null, "INTERNAL_ERROR");
@@ -184,8 +194,13 @@ public class RouteAccount implements HttpProvider {
         }
 
         @Override
-        public @NonNull Map<String, String> getBodyRegex() {
-            return Collections.singletonMap("email", Mimoto.EMAIL_REGEX);
+        public @NonNull Map<String, String> getBodyValidators() {
+            return Collections.singletonMap("email", "email");
+        }
+
+        @Override
+        public @Nullable QuotaPolicy getQuota() {
+            return EMAIL_QUOTA;
         }
 
         @Override
@@ -217,6 +232,11 @@ public class RouteAccount implements HttpProvider {
             return Arrays.asList("id", "newPassword");
         }
 
+        @Override
+        public @Nullable QuotaPolicy getQuota() {
+            return RESET_QUOTA;
+        }
+
         @Override
         public boolean shouldRateLimit() {
             return true;
@@ -246,6 +266,11 @@ public class RouteAccount implements HttpProvider {
             return Arrays.asList("id");
         }
 
+        @Override
+        public @Nullable QuotaPolicy getQuota() {
+            return RESET_QUOTA;
+        }
+
         @Override
         public boolean shouldRateLimit() {
             return true;
@@ -297,4 +322,13 @@ public class RouteAccount implements HttpProvider {
 
     }
 
+    public static class SendEmailVerification_PreProcessorConfig extends Authorized_PreProcessorConfig {
+
+        @Override
+        public @Nullable QuotaPolicy getQuota() {
+            return VERIFICATION_EMAIL_QUOTA;
+        }
+
+    }
+
 }
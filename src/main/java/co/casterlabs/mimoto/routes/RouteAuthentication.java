@@ -5,12 +5,15 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
-import co.casterlabs.mimoto.Mimoto;
+import org.jetbrains.annotations.Nullable;
+
 import co.casterlabs.mimoto.accounts.Account;
 import co.casterlabs.mimoto.preprocess.MimotoPreProcessor;
 import co.casterlabs.mimoto.preprocess.MimotoPreProcessorConfig;
 import co.casterlabs.mimoto.preprocess.MimotoRequestData;
+import co.casterlabs.mimoto.preprocess.QuotaPolicy;
 import co.casterlabs.mimoto.session.SessionUtil;
+import co.casterlabs.mimoto.util.ServiceOverloadedException;
 import co.casterlabs.rakurai.io.http.HttpMethod;
 import co.casterlabs.rakurai.io.http.StandardHttpStatus;
 import co.casterlabs.rakurai.io.http.server.HttpResponse;
@@ -23,6 +26,9 @@ import lombok.NonNull;
 import xyz.e3ndr.fastloggingframework.logging.FastLogger;
 
 public class RouteAuthentication implements HttpProvider {
+    // Both of these cost a BCrypt, so they share a (tight) per-ip budget.
+    private static final QuotaPolicy AUTH_QUOTA = new QuotaPolicy(1, 10, QuotaPolicy.Scope.IP, 1);
+    private static final QuotaPolicy REGISTER_QUOTA = AUTH_QUOTA.withCost(5);
 
     @HttpEndpoint(uri = "/public/v3/auth/register", allowedMethods = {
             HttpMethod.POST
@@ -31,7 +37,7 @@ public class RouteAuthentication implements HttpProvider {
         MimotoRequestData requestData = session.getAttachment();
 
         try {
-            JsonObject body = session.getRequestBodyJson(Rson.DEFAULT).getAsObject();
+            JsonObject body = requestData.getBody();
 
             String name = body.getString("name");
             String email = body.getString("email");
@@ -53,6 +59,8 @@ public class RouteAuthentication implements HttpProvider {
                 requestData.getSessionMeta(), StandardHttpStatus.CREATED, null,
                 response
             );
+        } catch (ServiceOverloadedException e) {
+            return SessionUtil.createServiceUnavailableResponse(requestData.getSessionMeta());
         } catch (Exception e) {
             FastLogger.logException(e);
             return SessionUtil.create(requestData.getSessionMeta(), StandardHttpStatus.INTERNAL_ERROR, null, "INTERNAL_ERROR");
@@ -66,7 +74,7 @@ public class RouteAuthentication implements HttpProvider {
         MimotoRequestData requestData = session.getAttachment();
 
         try {
-            JsonObject body = session.getRequestBodyJson(Rson.DEFAULT).getAsObject();
+            JsonObject body = requestData.getBody();
 
             String email = body.getString("email");
             String password = body.getString("password");
@@ -90,6 +98,8 @@ public class RouteAuthentication implements HttpProvider {
                     "UNAUTHORIZED"
                 );
             }
+        } catch (ServiceOverloadedException e) {
+            return SessionUtil.createServiceUnavailableResponse(requestData.getSessionMeta());
         } catch (Exception e) {
             FastLogger.logException(e);
             return SessionUtil.create(requestData.getSessionMeta(), StandardHttpStatus.INTERNAL_ERROR, null, "INTERNAL_ERROR");
@@ -108,8 +118,13 @@ public class RouteAuthentication implements HttpProvider {
         }
 
         @Override
-        public @NonNull Map<String, String> getBodyRegex() {
-            return Collections.singletonMap("email", Mimoto.EMAIL_REGEX);
+        public @NonNull Map<String, String> getBodyValidators() {
+            return Collections.singletonMap("email", "email");
+        }
+
+        @Override
+        public @Nullable QuotaPolicy getQuota() {
+            return REGISTER_QUOTA;
         }
 
         @Override
@@ -142,8 +157,13 @@ public class RouteAuthentication implements HttpProvider {
         }
 
         @Override
-        public @NonNull Map<String, String> getBodyRegex() {
-            return Collections.singletonMap("email", Mimoto.EMAIL_REGEX);
+        public @NonNull Map<String, String> getBodyValidators() {
+            return Collections.singletonMap("email", "email");
+        }
+
+        @Override
+        public @Nullable QuotaPolicy getQuota() {
+            return AUTH_QUOTA;
         }
 
         @Override
@@ -0,0 +1,81 @@
+package co.casterlabs.mimoto.schema;
+
+import java.util.concurrent.TimeUnit;
+
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import com.mongodb.client.model.IndexOptions;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.ToString;
+
+/**
+ * A single versioned index, see {@link SchemaBootstrapper}. Versions are
+ * recorded once applied, so never renumber or edit a released one; add a new
+ * version instead.
+ */
+@Getter
+@ToString
+@AllArgsConstructor
+public class IndexMigration {
+    private final int version;
+    private final @NonNull String database;
+    private final @NonNull String collection;
+    private final @NonNull Document keys;
+    private final boolean unique;
+
+    /**
+     * -1 for no TTL.
+     */
+    private final long expireAfterSeconds;
+
+    public static IndexMigration index(int version, String database, String collection, Document keys) {
+        return new IndexMigration(version, database, collection, keys, false, -1);
+    }
+
+    public static IndexMigration unique(int version, String database, String collection, Document keys) {
+        return new IndexMigration(version, database, collection, keys, true, -1);
+    }
+
+    /**
+     * Our documents store an absolute expiry date, so the TTL is usually 0.
+     */
+    public static IndexMigration ttl(int version, String database, String collection, String field, long expireAfterSeconds) {
+        return new IndexMigration(version, database, collection, new Document(field, 1), false, expireAfterSeconds);
+    }
+
+    public IndexMigration withDatabase(@NonNull String database) {
+        return new IndexMigration(this.version, database, this.collection, this.keys, this.unique, this.expireAfterSeconds);
+    }
+
+    public Bson getKeysAsBson() {
+        return this.keys;
+    }
+
+    public IndexOptions toIndexOptions() {
+        IndexOptions options = new IndexOptions()
+            .background(true)
+            .unique(this.unique);
+
+        if (this.expireAfterSeconds >= 0) {
+            options.expireAfter(this.expireAfterSeconds, TimeUnit.SECONDS);
+        }
+
+        return options;
+    }
+
+    public String describe() {
+        return String.format("v%d %s.%s %s%s%s",
+            this.version,
+            this.database,
+            this.collection,
+            this.keys.toJson(),
+            this.unique ? " unique" : "",
+            (this.expireAfterSeconds >= 0) ? (" ttl=" + this.expireAfterSeconds + "s") : ""
+        );
+    }
+
+}
@@ -0,0 +1,213 @@
+package co.casterlabs.mimoto.schema;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import org.bson.Document;
+import org.jetbrains.annotations.Nullable;
+
+import com.mongodb.MongoClient;
+import com.mongodb.MongoCommandException;
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.ReplaceOptions;
+
+import lombok.NonNull;
+import xyz.e3ndr.fastloggingframework.logging.FastLogger;
+import xyz.e3ndr.fastloggingframework.logging.LogLevel;
+
+/**
+ * Creates the indexes Mimoto's queries rely on. Every index is a numbered
+ * migration, applied versions are recorded in auth.schemaversions so a restart
+ * only has to read that collection. If an index already exists with different
+ * options we refuse to start rather than silently running without it.
+ */
+public class SchemaBootstrapper {
+    private static final String METADATA_DATABASE = "auth";
+    private static final String METADATA_COLLECTION = "schemaversions";
+
+    // Index conflict codes, see https://www.mongodb.com/docs/manual/reference/error-codes/
+    private static final int INDEX_OPTIONS_CONFLICT = 85;
+    private static final int INDEX_KEY_SPECS_CONFLICT = 86;
+    private static final int DUPLICATE_KEY = 11000;
+
+    // @formatter:off
+    public static final List<IndexMigration> MIGRATIONS = Collections.unmodifiableList(Arrays.asList(
+        IndexMigration.unique(1, "auth", "accounts", new Document("accountId", 1)),
+        IndexMigration.unique(2, "auth", "accounts", new Document("email", 1)), // Emails are always stored lowercase.
+        IndexMigration.index (3, "api",  "ratelimits", new Document("ip", 1).append("timestamp", 1)), // Uniqueness comes from the ip:bucket _id.
+        IndexMigration.ttl   (4, "api",  "ratelimits", "expiresAt", 0),
+        IndexMigration.unique(5, "auth", "accountversions", new Document("accountId", 1)),
+        IndexMigration.ttl   (6, "auth", "accountversions", "expiresAt", 0),
+        IndexMigration.index (7, "auth", "emailoutbox", new Document("state", 1).append("priority", 1).append("nextAttemptAt", 1)),
+        IndexMigration.ttl   (8, "auth", "emailoutbox", "expiresAt", 0),
+        IndexMigration.ttl   (9, "auth", "emailcoalesce", "expiresAt", 0),
+        IndexMigration.index (10, "auth", "accountversions", new Document("updatedAt", 1))
+    ));
+
+    /**
+     * Applied to every account shard, each shard keeps its own versions.
+     */
+    public static final List<IndexMigration> SHARD_MIGRATIONS = Collections.unmodifiableList(Arrays.asList(
+        IndexMigration.unique(1, "auth", "accounts", new Document("accountId", 1)),
+        IndexMigration.unique(2, "auth", "accounts", new Document("email", 1))
+    ));
+    // @formatter:on
+
+    /**
+     * @throws IllegalStateException if an index conflicts with an existing one.
+     */
+    public static void run(@NonNull MongoClient mongo) {
+        run(mongo, MIGRATIONS, METADATA_DATABASE);
+    }
+
+    /**
+     * @param database the shard's database, which replaces "auth" in
+     *                 {@link #SHARD_MIGRATIONS}.
+     */
+    public static void runForAccountShard(@NonNull MongoClient mongo, @NonNull String database) {
+        List<IndexMigration> migrations = new ArrayList<>();
+
+        for (IndexMigration migration : SHARD_MIGRATIONS) {
+            migrations.add(migration.withDatabase(database));
+        }
+
+        run(mongo, migrations, database);
+    }
+
+    private static void run(MongoClient mongo, List<IndexMigration> migrations, String metadataDatabase) {
+        MongoCollection<Document> metadata = mongo.getDatabase(metadataDatabase).getCollection(METADATA_COLLECTION);
+
+        Set<Integer> applied = new HashSet<>();
+        for (Document document : metadata.find()) {
+            applied.add(document.getInteger("_id"));
+        }
+
+        int count = 0;
+
+        for (IndexMigration migration : migrations) {
+            if (applied.contains(migration.getVersion())) {
+                continue;
+            }
+
+            MongoCollection<Document> collection = mongo.getDatabase(migration.getDatabase()).getCollection(migration.getCollection());
+
+            apply(collection, migration);
+
+            // Other nodes may be racing us on startup, creating the same index twice is a no-op.
+            metadata.replaceOne(
+                Filters.eq("_id", migration.getVersion()),
+                new Document("_id", migration.getVersion())
+                    .append("description", migration.describe())
+                    .append("appliedAt", new Date()),
+                new ReplaceOptions().upsert(true)
+            );
+
+            FastLogger.logStatic(LogLevel.INFO, "Applied schema migration %s", migration.describe());
+            count++;
+        }
+
+        FastLogger.logStatic(LogLevel.DEBUG, "Schema is up to date (%d migrations applied now, %d before).", count, applied.size());
+    }
+
+    private static void apply(MongoCollection<Document> collection, IndexMigration migration) {
+        Document existing = findIndexWithKeys(collection, migration.getKeys());
+
+        if (existing != null) {
+            if (!matches(existing, migration)) {
+                throw new IllegalStateException(
+                    String.format("Existing index %s conflicts with schema migration %s, drop or fix it by hand.", existing.toJson(), migration.describe())
+                );
+            }
+
+            return; // Someone already created it (by hand, or a node that died before recording it).
+        }
+
+        try {
+            collection.createIndex(migration.getKeysAsBson(), migration.toIndexOptions());
+        } catch (MongoCommandException e) {
+            if ((e.getErrorCode() == INDEX_OPTIONS_CONFLICT) || (e.getErrorCode() == INDEX_KEY_SPECS_CONFLICT)) {
+                throw new IllegalStateException("Schema migration " + migration.describe() + " conflicts with an existing index: " + e.getErrorMessage(), e);
+            }
+            throw e;
+        } catch (MongoException e) {
+            if (e.getCode() == DUPLICATE_KEY) {
+                throw new IllegalStateException("Cannot apply schema migration " + migration.describe() + ", the collection contains duplicates: " + e.getMessage(), e);
+            }
+            throw e;
+        }
+    }
+
+    private static @Nullable Document findIndexWithKeys(MongoCollection<Document> collection, Document keys) {
+        for (Document index : collection.listIndexes()) {
+            Document indexKeys = index.get("key", Document.class);
+
+            if ((indexKeys != null) && sameKeys(indexKeys, keys)) {
+                return index;
+            }
+        }
+
+        return null;
+    }
+
+    private static boolean matches(Document index, IndexMigration migration) {
+        boolean unique = index.getBoolean("unique", false);
+        Number expireAfterSeconds = index.get("expireAfterSeconds", Number.class);
+
+        if (unique != migration.isUnique()) {
+            return false;
+        }
+
+        if (migration.getExpireAfterSeconds() < 0) {
+            return expireAfterSeconds == null;
+        } else {
+            return (expireAfterSeconds != null) && (expireAfterSeconds.longValue() == migration.getExpireAfterSeconds());
+        }
+    }
+
+    /**
+     * Mongo hands key directions back as whatever number type it feels like, so
+     * compare them numerically (and in order, since order matters for compound
+     * indexes).
+     */
+    private static boolean sameKeys(Document a, Document b) {
+        if (a.size() != b.size()) {
+            return false;
+        }
+
+        Iterator<Map.Entry<String, Object>> aIt = a.entrySet().iterator();
+        Iterator<Map.Entry<String, Object>> bIt = b.entrySet().iterator();
+
+        while (aIt.hasNext()) {
+            Map.Entry<String, Object> aEntry = aIt.next();
+            Map.Entry<String, Object> bEntry = bIt.next();
+
+            if (!aEntry.getKey().equals(bEntry.getKey())) {
+                return false;
+            }
+
+            Object aValue = aEntry.getValue();
+            Object bValue = bEntry.getValue();
+
+            if ((aValue instanceof Number) && (bValue instanceof Number)) {
+                if (((Number) aValue).doubleValue() != ((Number) bValue).doubleValue()) {
+                    return false;
+                }
+            } else if (!Objects.equals(aValue, bValue)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+}
@@ -0,0 +1,153 @@
+package co.casterlabs.mimoto.session;
+
+/**
+ * A GCRA (generic cell rate algorithm) limiter that keeps exactly one long, the
+ * theoretical arrival time, per key. Keys are 64 bit hashes stored in striped
+ * open-addressed tables, so a check never allocates. When a probe sequence is
+ * full the entry that's closest to being idle gets replaced, which keeps memory
+ * fixed at the cost of occasionally forgiving an old key.
+ */
+public class GcraRateLimiter {
+    private static final int STRIPES = 64; // Must be a power of two.
+    private static final int PROBE_LIMIT = 8;
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    /**
+     * @param capacity the total number of keys to keep track of, rounded up per
+     *                 stripe to a power of two.
+     */
+    public GcraRateLimiter(int capacity) {
+        int perStripe = Integer.highestOneBit(Math.max(PROBE_LIMIT, capacity / STRIPES) - 1) << 1;
+
+        for (int i = 0; i < STRIPES; i++) {
+            this.stripes[i] = new Stripe(perStripe);
+        }
+    }
+
+    /**
+     * @param  key                   a hash from {@link #hash(CharSequence)}.
+     * @param  emissionIntervalNanos the time it takes for one unit to replenish.
+     * @param  burst                 how many units may be spent at once.
+     * @param  cost                  how many units this request costs.
+     *
+     * @return                       the remaining units after this request, or -1
+     *                               if the request should be rejected.
+     */
+    public long acquire(long key, long emissionIntervalNanos, int burst, int cost, long nowNanos) {
+        return this.check(key, emissionIntervalNanos, burst, cost, nowNanos, true);
+    }
+
+    /**
+     * Same as {@link #acquire(long, long, int, int, long)}, but doesn't spend
+     * anything. Useful for finding out if there's quota before doing work that's
+     * expensive to undo.
+     */
+    public long peek(long key, long emissionIntervalNanos, int burst, int cost, long nowNanos) {
+        return this.check(key, emissionIntervalNanos, burst, cost, nowNanos, false);
+    }
+
+    private long check(long key, long emissionIntervalNanos, int burst, int cost, long nowNanos, boolean consume) {
+        if (key == 0) {
+            key = 1; // 0 marks an empty slot.
+        }
+
+        long increment = emissionIntervalNanos * cost;
+        long tolerance = emissionIntervalNanos * burst;
+
+        Stripe stripe = this.stripes[(int) (key ^ (key >>> 32)) & (STRIPES - 1)];
+
+        synchronized (stripe) {
+            int slot = stripe.find(key, nowNanos);
+            long tat = (stripe.keys[slot] == key) ? stripe.tats[slot] : nowNanos;
+
+            if (tat - nowNanos < 0) {
+                tat = nowNanos;
+            }
+
+            long newTat = tat + increment;
+            long allowAt = newTat - tolerance;
+
+            if (nowNanos - allowAt < 0) {
+                return -1;
+            }
+
+            if (consume) {
+                stripe.keys[slot] = key;
+                stripe.tats[slot] = newTat;
+            }
+
+            return (nowNanos - allowAt) / emissionIntervalNanos;
+        }
+    }
+
+    /**
+     * FNV-1a over the chars, so hashing a key doesn't allocate.
+     */
+    public static long hash(CharSequence str) {
+        long hash = FNV_OFFSET;
+
+        for (int i = 0; i < str.length(); i++) {
+            hash ^= str.charAt(i);
+            hash *= FNV_PRIME;
+        }
+
+        return hash;
+    }
+
+    public static long mix(long a, long b) {
+        long hash = a ^ (b + 0x9e3779b97f4a7c15L + (a << 6) + (a >>> 2));
+
+        // Murmur3's finalizer.
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+
+        return hash;
+    }
+
+    private static class Stripe {
+        private final long[] keys;
+        private final long[] tats;
+        private final int mask;
+
+        private Stripe(int size) {
+            this.keys = new long[size];
+            this.tats = new long[size];
+            this.mask = size - 1;
+        }
+
+        /**
+         * @return the slot holding the key, or the best slot to put it in.
+         */
+        private int find(long key, long nowNanos) {
+            int start = (int) mix(key, 0) & this.mask;
+            int free = -1;
+            int victim = start;
+
+            for (int i = 0; i < PROBE_LIMIT; i++) {
+                int slot = (start + i) & this.mask;
+
+                if (this.keys[slot] == key) {
+                    return slot;
+                } else if ((this.keys[slot] == 0) || (this.tats[slot] - nowNanos <= 0)) {
+                    // Empty or idle, either way it carries no state worth keeping.
+                    if (free == -1) {
+                        free = slot;
+                    }
+                } else if (this.tats[slot] - this.tats[victim] < 0) {
+                    victim = slot;
+                }
+            }
+
+            return (free == -1) ? victim : free;
+        }
+
+    }
+
+}
@@ -0,0 +1,193 @@
+package co.casterlabs.mimoto.session;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import co.casterlabs.rakurai.json.annotating.JsonClass;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.ToString;
+import xyz.e3ndr.fastloggingframework.logging.FastLogger;
+import xyz.e3ndr.fastloggingframework.logging.LogLevel;
+
+/**
+ * Temporarily bans ips that keep getting rate limited. Every 429 is a strike,
+ * too many strikes within a short window earns a ban, and every ban after that
+ * lasts twice as long as the one before it (up to a cap). Offenders that behave
+ * for long enough are forgotten entirely.
+ */
+public class PenaltyBox {
+    private static final int STRIKES_BEFORE_BAN = 30;
+    private static final long STRIKE_WINDOW = TimeUnit.SECONDS.toMillis(10);
+
+    private static final long BASE_BAN_DURATION = TimeUnit.SECONDS.toMillis(30);
+    private static final long MAX_BAN_DURATION = TimeUnit.HOURS.toMillis(1);
+    private static final long FORGIVE_AFTER = TimeUnit.HOURS.toMillis(6);
+
+    private static final int MAX_OFFENDERS = 50_000;
+    private static final long SWEEP_INTERVAL = TimeUnit.SECONDS.toMillis(10);
+
+    private final Map<String, Offender> offenders = new ConcurrentHashMap<>();
+
+    private final LongAdder totalBans = new LongAdder();
+    private final LongAdder totalRejections = new LongAdder();
+    private final LongAdder untracked = new LongAdder();
+
+    private final AtomicLong lastSweep = new AtomicLong();
+
+    /**
+     * This is checked before anything else happens to a request, so it's just a
+     * map lookup and a volatile read.
+     */
+    public boolean isBanned(@NonNull String ip, long now) {
+        Offender offender = this.offenders.get(ip);
+
+        if ((offender != null) && (offender.bannedUntil > now)) {
+            this.totalRejections.increment();
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    public void strike(@NonNull String ip, long now) {
+        Offender offender = this.offenders.get(ip);
+
+        if (offender == null) {
+            if (this.offenders.size() >= MAX_OFFENDERS) {
+                this.maybeSweep(now);
+
+                if (this.offenders.size() >= MAX_OFFENDERS) {
+                    // Everyone in here is still recent, so we're probably being hit from a lot
+                    // of ips at once. They still get rate limited, we just can't ban them.
+                    this.untracked.increment();
+                    return;
+                }
+            }
+
+            offender = this.offenders.computeIfAbsent(ip, (k) -> new Offender());
+        }
+
+        long duration = offender.strike(now);
+
+        if (duration > 0) {
+            this.totalBans.increment();
+            FastLogger.logStatic(LogLevel.WARNING, "Banned %s for %dms (ban #%d).", ip, duration, offender.bans);
+        }
+    }
+
+    /**
+     * Sweeping walks every offender, so only one caller gets to do it per
+     * interval.
+     */
+    private void maybeSweep(long now) {
+        long last = this.lastSweep.get();
+
+        if (((now - last) >= SWEEP_INTERVAL) && this.lastSweep.compareAndSet(last, now)) {
+            this.sweep(now);
+        }
+    }
+
+    /**
+     * Drops anyone who isn't banned and hasn't struck out recently, and anyone
+     * whose last ban has long since been served.
+     */
+    public void sweep(long now) {
+        this.offenders.values().removeIf((offender) -> offender.isForgettable(now));
+    }
+
+    public long getTotalBans() {
+        return this.totalBans.sum();
+    }
+
+    public long getTotalRejections() {
+        return this.totalRejections.sum();
+    }
+
+    /**
+     * @return how many strikes were dropped because the box was full.
+     */
+    public long getUntrackedStrikes() {
+        return this.untracked.sum();
+    }
+
+    public List<Ban> getActiveBans() {
+        long now = System.currentTimeMillis();
+        List<Ban> bans = new ArrayList<>();
+
+        for (Map.Entry<String, Offender> entry : this.offenders.entrySet()) {
+            Offender offender = entry.getValue();
+
+            if (offender.bannedUntil > now) {
+                bans.add(new Ban(entry.getKey(), offender.bans, offender.lastBanDuration, offender.bannedUntil));
+            }
+        }
+
+        return bans;
+    }
+
+    private static class Offender {
+        private int strikes;
+        private long windowStart;
+
+        private int bans;
+        private long lastBanDuration;
+        private volatile long bannedUntil;
+
+        /**
+         * @return the duration of the ban, if this strike earned one.
+         */
+        private synchronized long strike(long now) {
+            if ((now - this.windowStart) > STRIKE_WINDOW) {
+                this.windowStart = now;
+                this.strikes = 0;
+            }
+
+            if ((this.bans > 0) && ((now - this.bannedUntil) > FORGIVE_AFTER)) {
+                this.bans = 0;
+            }
+
+            this.strikes++;
+
+            if (this.strikes < STRIKES_BEFORE_BAN) {
+                return 0;
+            }
+
+            this.strikes = 0;
+            this.bans++;
+
+            this.lastBanDuration = Math.min(MAX_BAN_DURATION, BASE_BAN_DURATION << Math.min(this.bans - 1, 16));
+            this.bannedUntil = now + this.lastBanDuration;
+
+            return this.lastBanDuration;
+        }
+
+        private synchronized boolean isForgettable(long now) {
+            if (this.bans > 0) {
+                return (now - this.bannedUntil) > FORGIVE_AFTER;
+            } else {
+                return (now - this.windowStart) > STRIKE_WINDOW;
+            }
+        }
+
+    }
+
+    @Getter
+    @ToString
+    @AllArgsConstructor
+    @JsonClass(exposeAll = true)
+    public static class Ban {
+        private String ip;
+        private int banCount;
+        private long duration;
+        private long bannedUntil;
+
+    }
+
+}
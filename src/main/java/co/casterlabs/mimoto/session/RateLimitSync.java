@@ -0,0 +1,227 @@
+package co.casterlabs.mimoto.session;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.model.WriteModel;
+
+import lombok.NonNull;
+import xyz.e3ndr.fastloggingframework.logging.FastLogger;
+
+/**
+ * Shares rate limit counts between Mimoto nodes without doing any I/O per
+ * request. Hits are counted locally per one second bucket and flushed as
+ * aggregated $inc upserts on a short interval, after which the cluster-wide
+ * counts are read back so {@link #getRemoteHits(String, long)} can tell us how
+ * many hits the other nodes have seen.
+ */
+public class RateLimitSync implements Closeable {
+    private static final long BUCKET_MILLIS = TimeUnit.SECONDS.toMillis(1);
+    private static final long FLUSH_INTERVAL_MILLIS = 250;
+    private static final int BATCH_SIZE = 1000;
+
+    private static final UpdateOptions UPSERT = new UpdateOptions().upsert(true);
+    private static final BulkWriteOptions UNORDERED = new BulkWriteOptions().ordered(false);
+
+    private final MongoCollection<Document> collection;
+
+    private final Map<Long, Map<String, Counter>> buckets = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor((r) -> {
+        Thread t = new Thread(r, "Mimoto - RateLimitSync");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public RateLimitSync(@NonNull MongoCollection<Document> collection) {
+        this.collection = collection;
+
+        this.executor.scheduleWithFixedDelay(() -> {
+            try {
+                this.sync(System.currentTimeMillis());
+            } catch (Throwable t) {
+                FastLogger.logException(t);
+            }
+        }, FLUSH_INTERVAL_MILLIS, FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    public void record(@NonNull String ip, long now) {
+        this.buckets
+            .computeIfAbsent(now / BUCKET_MILLIS, (b) -> new ConcurrentHashMap<>())
+            .computeIfAbsent(ip, (i) -> new Counter())
+            .pending
+            .increment();
+    }
+
+    /**
+     * @return an approximate number of hits from the other nodes within the last
+     *         second, weighting the previous bucket by how much of it still falls
+     *         inside the window.
+     */
+    public long getRemoteHits(@NonNull String ip, long now) {
+        long bucket = now / BUCKET_MILLIS;
+
+        long current = this.getRemoteHits(bucket, ip);
+        long previous = this.getRemoteHits(bucket - 1, ip);
+
+        double previousWeight = 1 - ((now % BUCKET_MILLIS) / (double) BUCKET_MILLIS);
+
+        return current + (long) (previous * previousWeight);
+    }
+
+    private long getRemoteHits(long bucket, String ip) {
+        Map<String, Counter> counters = this.buckets.get(bucket);
+
+        if (counters == null) {
+            return 0;
+        }
+
+        Counter counter = counters.get(ip);
+
+        if (counter == null) {
+            return 0;
+        } else {
+            return Math.max(0, counter.global - counter.flushed.get());
+        }
+    }
+
+    private void sync(long now) {
+        long currentBucket = now / BUCKET_MILLIS;
+
+        // Anything older than the previous bucket can't affect the window anymore.
+        this.buckets.keySet().removeIf((bucket) -> bucket < currentBucket - 1);
+
+        List<WriteModel<Document>> writes = new ArrayList<>();
+        Set<String> seen = new LinkedHashSet<>();
+
+        for (Map.Entry<Long, Map<String, Counter>> bucketEntry : this.buckets.entrySet()) {
+            long bucket = bucketEntry.getKey();
+            Date expiresAt = new Date((bucket + 2) * BUCKET_MILLIS);
+
+            for (Map.Entry<String, Counter> entry : bucketEntry.getValue().entrySet()) {
+                String ip = entry.getKey();
+                long delta = entry.getValue().pending.sumThenReset();
+
+                if (delta > 0) {
+                    entry.getValue().flushed.addAndGet(delta);
+
+                    // Keyed by _id so nodes racing on the first hit can't create two
+                    // documents for the same bucket, the loser just gets a duplicate key error.
+                    writes.add(
+                        new UpdateOneModel<>(
+                            Filters.eq("_id", ip + ':' + bucket),
+                            Updates.combine(
+                                Updates.inc("count", delta),
+                                Updates.setOnInsert("ip", ip),
+                                Updates.setOnInsert("timestamp", bucket * BUCKET_MILLIS),
+                                Updates.setOnInsert("expiresAt", expiresAt)
+                            ),
+                            UPSERT
+                        )
+                    );
+                }
+
+                seen.add(ip);
+            }
+        }
+
+        for (int i = 0; i < writes.size(); i += BATCH_SIZE) {
+            this.bulkWrite(writes.subList(i, Math.min(writes.size(), i + BATCH_SIZE)));
+        }
+
+        // Merge the global counts back in.
+        List<String> ips = new ArrayList<>(seen);
+        Map<Counter, Long> globals = new HashMap<>();
+
+        for (int i = 0; i < ips.size(); i += BATCH_SIZE) {
+            Bson filter = Filters.and(
+                Filters.in("ip", ips.subList(i, Math.min(ips.size(), i + BATCH_SIZE))),
+                Filters.gte("timestamp", (currentBucket - 1) * BUCKET_MILLIS)
+            );
+
+            for (Document document : this.collection.find(filter).projection(Projections.include("ip", "timestamp", "count"))) {
+                Number count = document.get("count", Number.class);
+                Number timestamp = document.get("timestamp", Number.class);
+
+                if ((count == null) || (timestamp == null)) {
+                    continue; // Left over from the old one-document-per-hit format.
+                }
+
+                Map<String, Counter> counters = this.buckets.get(timestamp.longValue() / BUCKET_MILLIS);
+
+                if (counters != null) {
+                    Counter counter = counters.get(document.getString("ip"));
+
+                    if (counter != null) {
+                        // Summed, in case an older node wrote its own document for the same bucket.
+                        globals.merge(counter, count.longValue(), Long::sum);
+                    }
+                }
+            }
+        }
+
+        for (Map.Entry<Counter, Long> entry : globals.entrySet()) {
+            entry.getKey().global = entry.getValue();
+        }
+    }
+
+    /**
+     * Retries the upserts that lost an insert race, by now the document exists so
+     * the retry is a plain update.
+     */
+    private void bulkWrite(List<WriteModel<Document>> writes) {
+        try {
+            this.collection.bulkWrite(writes, UNORDERED);
+        } catch (MongoBulkWriteException e) {
+            List<WriteModel<Document>> retries = new ArrayList<>();
+
+            for (BulkWriteError error : e.getWriteErrors()) {
+                if (error.getCategory() != ErrorCategory.DUPLICATE_KEY) {
+                    throw e;
+                }
+
+                retries.add(writes.get(error.getIndex()));
+            }
+
+            this.collection.bulkWrite(retries, UNORDERED);
+        }
+    }
+
+    @Override
+    public void close() {
+        this.executor.shutdown();
+    }
+
+    private static class Counter {
+        private final LongAdder pending = new LongAdder();
+        private final AtomicLong flushed = new AtomicLong();
+        private volatile long global;
+
+    }
+
+}
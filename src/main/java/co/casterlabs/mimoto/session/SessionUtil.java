@@ -1,11 +1,10 @@
 package co.casterlabs.mimoto.session;
 
-import java.util.Date;
 import java.util.concurrent.TimeUnit;
 
 import org.jetbrains.annotations.Nullable;
-import org.jongo.Jongo;
 
+import co.casterlabs.mimoto.preprocess.QuotaPolicy;
 import co.casterlabs.rakurai.io.http.HttpStatus;
 import co.casterlabs.rakurai.io.http.StandardHttpStatus;
 import co.casterlabs.rakurai.io.http.server.DropConnectionException;
@@ -14,14 +13,23 @@ import co.casterlabs.rakurai.io.http.server.HttpSession;
 import co.casterlabs.rakurai.json.element.JsonArray;
 import co.casterlabs.rakurai.json.element.JsonNull;
 import co.casterlabs.rakurai.json.element.JsonObject;
+import lombok.Getter;
 import lombok.NonNull;
 import lombok.Setter;
 
 public class SessionUtil {
     private static final JsonArray EMPTY_ARRAY = new JsonArray();
     private static final long MAX_QPS = 15;
+    private static final int MAX_TRACKED_IPS = 100_000;
+    private static final int MAX_TRACKED_QUOTA_KEYS = 262_144;
 
-    private static @Setter Jongo apiJongo;
+    private static final SlidingWindowRateLimiter rateLimiter = new SlidingWindowRateLimiter(TimeUnit.SECONDS.toMillis(1), MAX_TRACKED_IPS);
+
+    private static final GcraRateLimiter quotaLimiter = new GcraRateLimiter(MAX_TRACKED_QUOTA_KEYS);
+
+    private static @Setter @Nullable RateLimitSync rateLimitSync;
+
+    private static final @Getter PenaltyBox penaltyBox = new PenaltyBox();
 
     public static SessionMeta getSessionMeta(@NonNull HttpSession session, boolean countTowardsRateLimit) throws DropConnectionException {
         String ip = session.getRemoteIpAddress();
@@ -42,37 +50,41 @@ public class SessionUtil {
 
     public static SessionMeta getSessionMeta(@NonNull String ip, boolean countTowardsRateLimit) throws DropConnectionException {
         long current = System.currentTimeMillis();
+        long apiHits;
 
-        // Insert the request.
         if (countTowardsRateLimit && !ip.equals("0.0.0.0")) {
-            Date expiresAt = new Date(current + TimeUnit.SECONDS.toMillis(1));
-
-            apiJongo
-                .getCollection("ratelimits")
-                .insert(
-                    "{ip: #, timestamp: #, expiresAt: #}",
-                    ip,
-                    current,
-                    expiresAt
-                );
+            apiHits = rateLimiter.hit(ip, current);
+
+            if (rateLimitSync != null) {
+                rateLimitSync.record(ip, current);
+            }
+        } else {
+            apiHits = rateLimiter.peek(ip, current);
         }
 
-        // Create the meta.
-        {
-            long period = current - TimeUnit.SECONDS.toMillis(1);
+        // Add on whatever the rest of the cluster has seen from this ip.
+        if (rateLimitSync != null) {
+            apiHits += rateLimitSync.getRemoteHits(ip, current);
+        }
 
-            long apiHits = apiJongo
-                .getCollection("ratelimits")
-                .count(
-                    "{ip: #, timestamp: { $gt: # }}",
-                    ip,
-                    period
-                );
+        long remaining = MAX_QPS - apiHits;
 
-            long remaining = MAX_QPS - apiHits;
+        return new SessionMeta(ip, remaining, countTowardsRateLimit);
+    }
 
-            return new SessionMeta(ip, remaining, countTowardsRateLimit);
-        }
+    /**
+     * Charges the request against the quota.
+     *
+     * @param  key a hash identifying whoever the quota is scoped to, see
+     *             {@link GcraRateLimiter#hash(CharSequence)}.
+     *
+     * @return     the meta, with the remaining count lowered to whatever the quota
+     *             still allows.
+     */
+    public static SessionMeta applyQuota(@NonNull SessionMeta meta, @NonNull QuotaPolicy quota, long key) {
+        long remaining = quotaLimiter.acquire(key, quota.getEmissionIntervalNanos(), quota.getBurst(), quota.getCost(), System.nanoTime());
+
+        return new SessionMeta(meta.getIp(), Math.min(remaining, meta.getRatelimitRemaining()), true);
     }
 
     public static HttpResponse create(@Nullable SessionMeta meta, @NonNull HttpStatus status, @Nullable String note, @NonNull JsonObject data) {
@@ -88,6 +100,10 @@ public class SessionUtil {
         return create(meta, StandardHttpStatus.TOO_MANY_REQUESTS, null, "TOO_MANY_REQUESTS");
     }
 
+    public static HttpResponse createServiceUnavailableResponse(@Nullable SessionMeta meta) {
+        return create(meta, StandardHttpStatus.SERVICE_UNAVAILABLE, "We're a little busy right now, try again in a moment.", "SERVICE_UNAVAILABLE");
+    }
+
     public static HttpResponse create(@Nullable SessionMeta meta, @NonNull HttpStatus status, @Nullable String note, @NonNull Enum<?>... errors) {
         JsonObject payload = new JsonObject();
         JsonArray array = new JsonArray();
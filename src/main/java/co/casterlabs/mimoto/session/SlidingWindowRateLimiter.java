@@ -0,0 +1,158 @@
+package co.casterlabs.mimoto.session;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import lombok.NonNull;
+
+/**
+ * In-memory per-key sliding window counters. Keys are spread over a fixed set of
+ * stripes, each stripe is an access-ordered map with a hard cap, so memory stays
+ * bounded and idle keys fall off the head of the map as new hits come in.
+ */
+public class SlidingWindowRateLimiter {
+    private static final int STRIPES = 64; // Must be a power of two.
+    private static final int SLOTS = 10;
+
+    private final long windowMillis;
+    private final long slotMillis;
+    private final int maxKeysPerStripe;
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    public SlidingWindowRateLimiter(long windowMillis, int maxKeys) {
+        this.windowMillis = windowMillis;
+        this.slotMillis = Math.max(1, windowMillis / SLOTS);
+        this.maxKeysPerStripe = Math.max(1, maxKeys / STRIPES);
+
+        for (int i = 0; i < STRIPES; i++) {
+            this.stripes[i] = new Stripe();
+        }
+    }
+
+    /**
+     * Records a hit for the key.
+     *
+     * @return the number of hits in the current window, including this one.
+     */
+    public long hit(@NonNull String key, long now) {
+        Stripe stripe = this.stripeFor(key);
+
+        synchronized (stripe) {
+            stripe.evictIdle(now);
+
+            Window window = stripe.get(key);
+
+            if (window == null) {
+                window = new Window();
+                stripe.put(key, window);
+            }
+
+            return window.hit(now);
+        }
+    }
+
+    /**
+     * @return the number of hits in the current window, without recording one.
+     */
+    public long peek(@NonNull String key, long now) {
+        Stripe stripe = this.stripeFor(key);
+
+        synchronized (stripe) {
+            Window window = stripe.get(key);
+
+            if (window == null) {
+                return 0;
+            } else {
+                return window.count(now / this.slotMillis);
+            }
+        }
+    }
+
+    public int size() {
+        int size = 0;
+
+        for (Stripe stripe : this.stripes) {
+            synchronized (stripe) {
+                size += stripe.size();
+            }
+        }
+
+        return size;
+    }
+
+    private Stripe stripeFor(String key) {
+        int hash = key.hashCode();
+
+        hash ^= (hash >>> 16);
+
+        return this.stripes[hash & (STRIPES - 1)];
+    }
+
+    private class Stripe extends LinkedHashMap<String, Window> {
+        private static final long serialVersionUID = 2094417235117263419L;
+
+        private Stripe() {
+            super(16, 0.75f, true);
+        }
+
+        /**
+         * The map is access ordered, so the head is always the least recently hit
+         * key. We just walk from the head until we find something that's still live.
+         */
+        private void evictIdle(long now) {
+            Iterator<Window> it = this.values().iterator();
+
+            while (it.hasNext()) {
+                if ((now - it.next().lastHit) > windowMillis) {
+                    it.remove();
+                } else {
+                    break;
+                }
+            }
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Window> eldest) {
+            return this.size() > maxKeysPerStripe;
+        }
+
+    }
+
+    private class Window {
+        private final long[] slotIds = new long[SLOTS];
+        private final int[] counts = new int[SLOTS];
+
+        private long lastHit;
+
+        private long hit(long now) {
+            long slot = now / slotMillis;
+            int idx = (int) (slot % SLOTS);
+
+            if (this.slotIds[idx] != slot) {
+                this.slotIds[idx] = slot;
+                this.counts[idx] = 0;
+            }
+
+            this.counts[idx]++;
+            this.lastHit = now;
+
+            return this.count(slot);
+        }
+
+        private long count(long slot) {
+            long total = 0;
+
+            for (int i = 0; i < SLOTS; i++) {
+                if ((slot - this.slotIds[i]) < SLOTS) {
+                    total += this.counts[i];
+                }
+            }
+
+            return total;
+        }
+
+    }
+
+}
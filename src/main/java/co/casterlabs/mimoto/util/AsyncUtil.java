@@ -0,0 +1,50 @@
+package co.casterlabs.mimoto.util;
+
+import java.util.concurrent.CompletableFuture;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import lombok.NonNull;
+
+public class AsyncUtil {
+
+    /**
+     * Bridges one of the reactive Mongo driver's publishers to a future. Completes
+     * with the first item, or null if there wasn't one. Everything we use emits at
+     * most one (first(), updates, etc), anything past that is cancelled.
+     */
+    public static <T> CompletableFuture<T> first(@NonNull Publisher<T> publisher) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+
+        publisher.subscribe(new Subscriber<T>() {
+            private Subscription subscription;
+
+            @Override
+            public void onSubscribe(Subscription subscription) {
+                this.subscription = subscription;
+                subscription.request(1);
+            }
+
+            @Override
+            public void onNext(T item) {
+                future.complete(item);
+                this.subscription.cancel();
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                future.completeExceptionally(t);
+            }
+
+            @Override
+            public void onComplete() {
+                future.complete(null);
+            }
+        });
+
+        return future;
+    }
+
+}
@@ -0,0 +1,100 @@
+package co.casterlabs.mimoto.util;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.mindrot.BCrypt;
+
+import xyz.e3ndr.fastloggingframework.logging.FastLogger;
+import xyz.e3ndr.fastloggingframework.logging.LogLevel;
+
+/**
+ * Picks the BCrypt cost for this machine by timing a hash at each cost and
+ * taking the highest one that stays within the latency target.
+ * 
+ * Run this class directly to print the cost to latency table:
+ * 
+ * <pre>
+ * java -cp Mimoto.jar co.casterlabs.mimoto.util.BCryptCalibrator [maxCost]
+ * </pre>
+ */
+public class BCryptCalibrator {
+    public static final int MIN_COST = 10; // BCrypt's own default, we never go below this.
+    public static final int MAX_COST = 16;
+
+    private static final int MIN_BENCHMARK_COST = 4;
+    private static final int SAMPLES = 3;
+
+    /**
+     * @return the highest cost that hashes within the target, never less than
+     *         {@link #MIN_COST}.
+     */
+    public static int calibrate(long targetMillis) {
+        int chosen = MIN_COST;
+
+        for (Map.Entry<Integer, Double> entry : measure(MIN_COST, MAX_COST, targetMillis).entrySet()) {
+            if (entry.getValue() <= targetMillis) {
+                chosen = entry.getKey();
+            }
+        }
+
+        FastLogger.logStatic(LogLevel.INFO, "Calibrated BCrypt to a cost of %d (target: %dms).", chosen, targetMillis);
+
+        return chosen;
+    }
+
+    /**
+     * Measures each cost from min to max, stopping early once a cost takes longer
+     * than the limit (every step doubles the time, so there's no point going on).
+     * 
+     * @return cost -> median milliseconds per hash.
+     */
+    public static Map<Integer, Double> measure(int minCost, int maxCost, long limitMillis) {
+        Map<Integer, Double> results = new LinkedHashMap<>();
+
+        BCrypt.hashpw("warmup", BCrypt.gensalt(MIN_BENCHMARK_COST));
+
+        for (int cost = minCost; cost <= maxCost; cost++) {
+            double millis = time(cost);
+
+            results.put(cost, millis);
+
+            if (millis > limitMillis) {
+                break;
+            }
+        }
+
+        return results;
+    }
+
+    private static double time(int cost) {
+        double[] samples = new double[SAMPLES];
+
+        for (int i = 0; i < SAMPLES; i++) {
+            String salt = BCrypt.gensalt(cost);
+            long start = System.nanoTime();
+
+            BCrypt.hashpw("calibration", salt);
+
+            samples[i] = (System.nanoTime() - start) / (double) TimeUnit.MILLISECONDS.toNanos(1);
+        }
+
+        Arrays.sort(samples);
+
+        return samples[SAMPLES / 2];
+    }
+
+    public static void main(String[] args) {
+        int maxCost = (args.length > 0) ? Integer.parseInt(args[0]) : 14;
+
+        System.out.println("cost | ms/hash");
+        System.out.println("-----+---------");
+
+        for (Map.Entry<Integer, Double> entry : measure(MIN_BENCHMARK_COST, maxCost, Long.MAX_VALUE).entrySet()) {
+            System.out.printf("%4d | %8.2f\n", entry.getKey(), entry.getValue());
+        }
+    }
+
+}
@@ -1,11 +1,19 @@
 package co.casterlabs.mimoto.util;
 
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.util.Base64;
+import java.util.concurrent.CompletableFuture;
 
+import org.jetbrains.annotations.Nullable;
 import org.mindrot.BCrypt;
 
+import lombok.Getter;
+import lombok.Setter;
+
 public class CryptoUtil {
     private static final char[] KEY_CHARS = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789".toCharArray();
 
@@ -14,6 +22,8 @@ public class CryptoUtil {
 
     private static final SecureRandom random = new SecureRandom();
 
+    private static @Getter @Setter int bcryptCost = BCryptCalibrator.MIN_COST;
+
     public static char[] generateSecureRandomKey() {
         return generateKey(SECURE_KEY_SIZE, KEY_CHARS);
     }
@@ -32,8 +42,50 @@ public class CryptoUtil {
         return result;
     }
 
-    public static String encrypt(String toEncrypt) {
-        String bcrypt = BCrypt.hashpw(toEncrypt, BCrypt.gensalt());
+    /**
+     * Runs on the {@link HashingExecutor}.
+     */
+    public static String hashPassword(String password) throws ServiceOverloadedException {
+        return HashingExecutor.run(() -> BCrypt.hashpw(password, BCrypt.gensalt(bcryptCost)));
+    }
+
+    /**
+     * Hashes the password using only spare capacity on the {@link HashingExecutor}.
+     * 
+     * @return the future hash, or null if we're too busy right now.
+     */
+    public static @Nullable CompletableFuture<String> hashPasswordInBackground(String password) {
+        return HashingExecutor.tryRunInBackground(() -> BCrypt.hashpw(password, BCrypt.gensalt(bcryptCost)));
+    }
+
+    /**
+     * @return the cost the hash was generated with, or -1 if it isn't a BCrypt
+     *         hash.
+     */
+    public static int getBCryptCost(String hash) {
+        // $2a$10$...
+        String[] split = hash.split("\\$");
+
+        if (split.length < 4) {
+            return -1;
+        }
+
+        try {
+            return Integer.parseInt(split[2]);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Runs on the {@link HashingExecutor}.
+     */
+    public static boolean checkPassword(String password, String hash) throws ServiceOverloadedException {
+        return HashingExecutor.run(() -> BCrypt.checkpw(password, hash));
+    }
+
+    public static String encrypt(String toEncrypt) throws ServiceOverloadedException {
+        String bcrypt = hashPassword(toEncrypt);
 
         // We b64 encode the result to make sure it's URL safe.
         return Base64
@@ -41,7 +93,7 @@ public class CryptoUtil {
             .encodeToString(bcrypt.getBytes(StandardCharsets.UTF_8));
     }
 
-    public static boolean decryptCompare(String encrypted, String challenge) {
+    public static boolean decryptCompare(String encrypted, String challenge) throws ServiceOverloadedException {
         String bcrypt = new String(
             Base64
                 .getUrlDecoder()
@@ -49,11 +101,40 @@ public class CryptoUtil {
             StandardCharsets.UTF_8
         );
 
-        return BCrypt.checkpw(
+        return checkPassword(
             // These may seem reversed, but they aren't.
             challenge,
             bcrypt
         );
     }
 
+    public static byte[] sha256(String str) {
+        try {
+            return MessageDigest
+                .getInstance("SHA-256")
+                .digest(str.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // Every JVM is required to have SHA-256.
+        }
+    }
+
+    /**
+     * @return a url-safe SHA-256 of the string, suitable for use as a map key when
+     *         we don't want to keep the original around.
+     */
+    public static String hash(String str) {
+        return Base64
+            .getUrlEncoder()
+            .withoutPadding()
+            .encodeToString(sha256(str));
+    }
+
+    /**
+     * @return the first 64 bits of the string's SHA-256, useful for telling when a
+     *         value has changed without holding onto it.
+     */
+    public static long fingerprint(String str) {
+        return ByteBuffer.wrap(sha256(str)).getLong();
+    }
+
 }
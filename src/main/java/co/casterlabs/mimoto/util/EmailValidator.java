@@ -0,0 +1,271 @@
+package co.casterlabs.mimoto.util;
+
+import co.casterlabs.mimoto.Mimoto;
+import lombok.NonNull;
+
+/**
+ * A hand-written, single pass equivalent of {@link Mimoto#EMAIL_REGEX}. The
+ * regex backtracks badly on long garbage (especially in the domain), this never
+ * looks at a char more than a couple of times and never allocates.
+ * <p>
+ * It accepts exactly what the regex fully matches, except that anything longer
+ * than {@link #MAX_LENGTH} is always rejected. Like the regex it's lowercase
+ * only outside of quoted strings and address literals.
+ */
+public class EmailValidator {
+    public static final int MAX_LENGTH = 254; // RFC 5321's limit on a forward path, minus the brackets.
+
+    public static boolean isValid(@NonNull CharSequence str) {
+        int len = str.length();
+
+        if ((len == 0) || (len > MAX_LENGTH)) {
+            return false;
+        }
+
+        int at = (str.charAt(0) == '"') ? scanQuotedLocalPart(str) : scanDotAtom(str);
+
+        if ((at == -1) || (at >= len) || (str.charAt(at) != '@')) {
+            return false;
+        }
+
+        int domainStart = at + 1;
+
+        if ((domainStart < len) && (str.charAt(domainStart) == '[')) {
+            return isValidAddressLiteral(str, domainStart + 1);
+        } else {
+            return isValidHostname(str, domainStart);
+        }
+    }
+
+    /* ---------------- */
+    /* Local part       */
+    /* ---------------- */
+
+    /**
+     * @return the index after the local part, or -1 if it's invalid.
+     */
+    private static int scanDotAtom(CharSequence str) {
+        boolean expectingAtext = true; // At the start and after every dot.
+
+        for (int i = 0; i < str.length(); i++) {
+            char c = str.charAt(i);
+
+            if (isAtext(c)) {
+                expectingAtext = false;
+            } else if ((c == '.') && !expectingAtext) {
+                expectingAtext = true;
+            } else {
+                return expectingAtext ? -1 : i;
+            }
+        }
+
+        return expectingAtext ? -1 : str.length();
+    }
+
+    /**
+     * @return the index after the closing quote, or -1 if it's invalid.
+     */
+    private static int scanQuotedLocalPart(CharSequence str) {
+        for (int i = 1; i < str.length(); i++) {
+            char c = str.charAt(i);
+
+            if (c == '"') {
+                return i + 1;
+            } else if (c == '\\') {
+                // The regex doesn't let a lone backslash through, it always escapes something.
+                i++;
+
+                if ((i == str.length()) || !isQuotedPair(str.charAt(i))) {
+                    return -1;
+                }
+            } else if (!isQtext(c)) {
+                return -1;
+            }
+        }
+
+        return -1; // Never closed.
+    }
+
+    /* ---------------- */
+    /* Domain           */
+    /* ---------------- */
+
+    /**
+     * At least two dot separated labels, each starting and ending with a letter or
+     * digit with hyphens allowed in between.
+     */
+    private static boolean isValidHostname(CharSequence str, int start) {
+        int labels = 0;
+        int labelLength = 0;
+        char last = 0;
+
+        for (int i = start; i < str.length(); i++) {
+            char c = str.charAt(i);
+
+            if (isLowerAlnum(c)) {
+                labelLength++;
+            } else if (c == '-') {
+                if (labelLength == 0) {
+                    return false;
+                }
+
+                labelLength++;
+            } else if (c == '.') {
+                if ((labelLength == 0) || (last == '-')) {
+                    return false;
+                }
+
+                labels++;
+                labelLength = 0;
+            } else {
+                return false;
+            }
+
+            last = c;
+        }
+
+        return (labels >= 1) && (labelLength > 0) && (last != '-');
+    }
+
+    /**
+     * Either [a.b.c.d] or [a.b.c.tag:content], the regex only allows the general
+     * form after three octets.
+     * 
+     * @param start the index after the opening bracket.
+     */
+    private static boolean isValidAddressLiteral(CharSequence str, int start) {
+        int end = str.length() - 1; // The closing bracket.
+
+        if ((end < start) || (str.charAt(end) != ']')) {
+            return false;
+        }
+
+        int pos = start;
+
+        for (int octet = 0; octet < 3; octet++) {
+            pos = scanOctet(str, pos, end);
+
+            if ((pos == -1) || (pos == end) || (str.charAt(pos) != '.')) {
+                return false;
+            }
+
+            pos++;
+        }
+
+        if (scanOctet(str, pos, end) == end) {
+            return true;
+        }
+
+        // Otherwise it has to be tag:content, tags can't contain a colon so the
+        // first one ends it.
+        int tagStart = pos;
+
+        while ((pos < end) && (str.charAt(pos) != ':')) {
+            char c = str.charAt(pos);
+
+            if (!isLowerAlnum(c) && (c != '-')) {
+                return false;
+            }
+
+            pos++;
+        }
+
+        if ((pos == end) || (pos == tagStart) || (str.charAt(pos - 1) == '-')) {
+            return false;
+        }
+
+        int contentStart = pos + 1;
+
+        if (contentStart == end) {
+            return false; // Content can't be empty.
+        }
+
+        for (int i = contentStart; i < end; i++) {
+            char c = str.charAt(i);
+
+            if (isDtext(c)) {
+                continue;
+            }
+
+            // Backslashes are plain content here, so the only chars that actually need
+            // one are those that aren't allowed on their own (tab and space).
+            if (((c == '\t') || (c == ' ')) && (i > contentStart) && (str.charAt(i - 1) == '\\')) {
+                continue;
+            }
+
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * 0-255 without leading zeros.
+     * 
+     * @return the index after the octet, or -1 if there isn't one.
+     */
+    private static int scanOctet(CharSequence str, int pos, int end) {
+        int value = 0;
+        int digits = 0;
+
+        while ((pos < end) && (digits < 4) && isDigit(str.charAt(pos))) {
+            value = (value * 10) + (str.charAt(pos) - '0');
+            digits++;
+            pos++;
+        }
+
+        if ((digits == 0) || (digits > 3) || (value > 255)) {
+            return -1;
+        } else if ((digits > 1) && (str.charAt(pos - digits) == '0')) {
+            return -1;
+        } else {
+            return pos;
+        }
+    }
+
+    /* ---------------- */
+    /* Char classes     */
+    /* ---------------- */
+
+    private static boolean isDigit(char c) {
+        return (c >= '0') && (c <= '9');
+    }
+
+    private static boolean isLowerAlnum(char c) {
+        return ((c >= 'a') && (c <= 'z')) || isDigit(c);
+    }
+
+    private static boolean isAtext(char c) {
+        return isLowerAlnum(c) || ((c < 128) && ("!#$%&'*+/=?^_`{|}~-".indexOf(c) != -1));
+    }
+
+    /**
+     * [\x01-\x08\x0b\x0c\x0e-\x1f\x21\x23-\x5b\x5d-\x7f]
+     */
+    private static boolean isQtext(char c) {
+        return isControl(c) || (c == 0x21) || ((c >= 0x23) && (c <= 0x5b)) || ((c >= 0x5d) && (c <= 0x7f));
+    }
+
+    /**
+     * [\x01-\x08\x0b\x0c\x0e-\x1f\x21-\x5a\x53-\x7f], which notably includes the
+     * backslash and the closing bracket.
+     */
+    private static boolean isDtext(char c) {
+        return isControl(c) || ((c >= 0x21) && (c <= 0x7f));
+    }
+
+    /**
+     * [\x01-\x09\x0b\x0c\x0e-\x7f]
+     */
+    private static boolean isQuotedPair(char c) {
+        return (c == '\t') || isControl(c) || ((c >= 0x20) && (c <= 0x7f));
+    }
+
+    /**
+     * [\x01-\x08\x0b\x0c\x0e-\x1f]
+     */
+    private static boolean isControl(char c) {
+        return ((c >= 0x01) && (c <= 0x08)) || (c == 0x0b) || (c == 0x0c) || ((c >= 0x0e) && (c <= 0x1f));
+    }
+
+}
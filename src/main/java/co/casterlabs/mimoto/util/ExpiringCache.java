@@ -0,0 +1,179 @@
+package co.casterlabs.mimoto.util;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiPredicate;
+
+import org.jetbrains.annotations.Nullable;
+
+import lombok.NonNull;
+
+/**
+ * A bounded LRU cache where every entry also expires a fixed time after it was
+ * put. Keys are spread over a handful of striped, access-ordered maps so readers
+ * of different keys rarely contend with each other.
+ */
+public class ExpiringCache<K, V> {
+    private static final int STRIPES = 16; // Must be a power of two.
+
+    private final long ttlMillis;
+    private final int maxSizePerStripe;
+
+    private final Stripe[] stripes;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    @SuppressWarnings("unchecked")
+    public ExpiringCache(int maxSize, long ttlMillis) {
+        this.ttlMillis = ttlMillis;
+        this.maxSizePerStripe = Math.max(1, maxSize / STRIPES);
+        this.stripes = (Stripe[]) new ExpiringCache.Stripe[STRIPES];
+
+        for (int i = 0; i < STRIPES; i++) {
+            this.stripes[i] = new Stripe();
+        }
+    }
+
+    public @Nullable V get(@NonNull K key) {
+        Stripe stripe = this.stripeFor(key);
+        long now = System.currentTimeMillis();
+
+        synchronized (stripe) {
+            Entry<V> entry = stripe.get(key);
+
+            if (entry == null) {
+                this.misses.increment();
+                return null;
+            } else if (entry.expiresAt <= now) {
+                stripe.remove(key);
+                this.evictions.increment();
+                this.misses.increment();
+                return null;
+            } else {
+                this.hits.increment();
+                return entry.value;
+            }
+        }
+    }
+
+    public void put(@NonNull K key, @NonNull V value) {
+        Stripe stripe = this.stripeFor(key);
+        long now = System.currentTimeMillis();
+
+        synchronized (stripe) {
+            stripe.evictExpired(now);
+            stripe.put(key, new Entry<>(value, now + this.ttlMillis));
+        }
+    }
+
+    public @Nullable V remove(@NonNull K key) {
+        Stripe stripe = this.stripeFor(key);
+
+        synchronized (stripe) {
+            Entry<V> entry = stripe.remove(key);
+
+            return (entry == null) ? null : entry.value;
+        }
+    }
+
+    /**
+     * Walks every entry, this is meant for (rare) invalidations.
+     */
+    public void removeIf(@NonNull BiPredicate<K, V> predicate) {
+        for (Stripe stripe : this.stripes) {
+            synchronized (stripe) {
+                stripe.entrySet().removeIf((e) -> predicate.test(e.getKey(), e.getValue().value));
+            }
+        }
+    }
+
+    public void clear() {
+        for (Stripe stripe : this.stripes) {
+            synchronized (stripe) {
+                stripe.clear();
+            }
+        }
+    }
+
+    public int size() {
+        int size = 0;
+
+        for (Stripe stripe : this.stripes) {
+            synchronized (stripe) {
+                size += stripe.size();
+            }
+        }
+
+        return size;
+    }
+
+    public long getHits() {
+        return this.hits.sum();
+    }
+
+    public long getMisses() {
+        return this.misses.sum();
+    }
+
+    public long getEvictions() {
+        return this.evictions.sum();
+    }
+
+    private Stripe stripeFor(K key) {
+        int hash = key.hashCode();
+
+        hash ^= (hash >>> 16);
+
+        return this.stripes[hash & (STRIPES - 1)];
+    }
+
+    private class Stripe extends LinkedHashMap<K, Entry<V>> {
+        private static final long serialVersionUID = -4325337806466296135L;
+
+        private Stripe() {
+            super(16, 0.75f, true);
+        }
+
+        private void evictExpired(long now) {
+            Iterator<Entry<V>> it = this.values().iterator();
+
+            // Entries are put with the same ttl so the oldest ones are usually at the
+            // head, reads shuffle that a bit but this is only best-effort anyways.
+            while (it.hasNext()) {
+                if (it.next().expiresAt <= now) {
+                    it.remove();
+                    evictions.increment();
+                } else {
+                    break;
+                }
+            }
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+            if (this.size() > maxSizePerStripe) {
+                evictions.increment();
+                return true;
+            } else {
+                return false;
+            }
+        }
+
+    }
+
+    private static class Entry<V> {
+        private final V value;
+        private final long expiresAt;
+
+        private Entry(V value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+
+    }
+
+}
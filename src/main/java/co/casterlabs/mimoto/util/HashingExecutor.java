@@ -0,0 +1,180 @@
+package co.casterlabs.mimoto.util;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.jetbrains.annotations.Nullable;
+
+import lombok.NonNull;
+
+/**
+ * Runs password hashing on a dedicated pool sized to the machine, so a burst of
+ * logins can't tie up every HTTP worker. The queue is bounded and every task
+ * carries a deadline, anything that can't start before its deadline gets shed
+ * with a {@link ServiceOverloadedException}.
+ */
+public class HashingExecutor {
+    private static final int THREADS = Runtime.getRuntime().availableProcessors();
+    private static final int QUEUE_SIZE = THREADS * 8;
+
+    private static final long DEFAULT_DEADLINE = TimeUnit.SECONDS.toNanos(2);
+
+    private static final AtomicInteger threadCount = new AtomicInteger();
+
+    private static final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+        THREADS, THREADS,
+        0, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<>(QUEUE_SIZE),
+        (r) -> {
+            Thread t = new Thread(r, "Mimoto - Hashing #" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    );
+
+    private static final LongAdder started = new LongAdder();
+    private static final LongAdder completed = new LongAdder();
+    private static final LongAdder rejected = new LongAdder();
+    private static final LongAdder expired = new LongAdder();
+
+    private static final LongAdder totalWaitNanos = new LongAdder();
+    private static final LongAccumulator maxWaitNanos = new LongAccumulator(Math::max, 0);
+
+    public static <T> T run(@NonNull Callable<T> task) throws ServiceOverloadedException {
+        return run(task, DEFAULT_DEADLINE);
+    }
+
+    /**
+     * Runs the task and waits for the result.
+     * 
+     * @throws ServiceOverloadedException if the queue is full, or if the deadline
+     *                                    passes before the task finishes.
+     */
+    public static <T> T run(@NonNull Callable<T> task, long deadlineNanos) throws ServiceOverloadedException {
+        long enqueuedAt = System.nanoTime();
+        long deadline = enqueuedAt + deadlineNanos;
+
+        Future<T> future;
+
+        try {
+            future = executor.submit(() -> {
+                long waited = System.nanoTime() - enqueuedAt;
+
+                started.increment();
+                totalWaitNanos.add(waited);
+                maxWaitNanos.accumulate(waited);
+
+                // Nobody is waiting for the result anymore, don't bother.
+                if (waited >= deadlineNanos) {
+                    expired.increment();
+                    throw new ServiceOverloadedException("Hashing task expired while queued.");
+                }
+
+                T result = task.call();
+
+                completed.increment();
+                return result;
+            });
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            throw new ServiceOverloadedException("Hashing queue is full.");
+        }
+
+        try {
+            return future.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(false);
+            expired.increment();
+            throw new ServiceOverloadedException("Hashing task missed its deadline.");
+        } catch (InterruptedException e) {
+            future.cancel(false);
+            Thread.currentThread().interrupt();
+            throw new ServiceOverloadedException("Interrupted while waiting on a hashing task.");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else {
+                throw new IllegalStateException(cause);
+            }
+        }
+    }
+
+    /**
+     * Runs the task only if the pool has spare capacity, for work that nobody is
+     * waiting on.
+     * 
+     * @return the future result, or null if the pool is too busy to take it.
+     */
+    public static @Nullable <T> CompletableFuture<T> tryRunInBackground(@NonNull Callable<T> task) {
+        if (executor.getQueue().size() > (QUEUE_SIZE / 2)) {
+            return null;
+        }
+
+        CompletableFuture<T> future = new CompletableFuture<>();
+
+        try {
+            executor.execute(() -> {
+                try {
+                    future.complete(task.call());
+                } catch (Throwable t) {
+                    future.completeExceptionally(t);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            return null;
+        }
+
+        return future;
+    }
+
+    public static int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    public static int getQueueCapacity() {
+        return QUEUE_SIZE;
+    }
+
+    public static int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    public static long getCompleted() {
+        return completed.sum();
+    }
+
+    public static long getRejected() {
+        return rejected.sum();
+    }
+
+    public static long getExpired() {
+        return expired.sum();
+    }
+
+    public static double getAverageWaitMillis() {
+        long count = started.sum();
+
+        if (count == 0) {
+            return 0;
+        } else {
+            return (totalWaitNanos.sum() / (double) count) / TimeUnit.MILLISECONDS.toNanos(1);
+        }
+    }
+
+    public static double getMaxWaitMillis() {
+        return maxWaitNanos.get() / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+}
@@ -2,7 +2,6 @@ package co.casterlabs.mimoto.util;
 
 import java.net.URLDecoder;
 import java.net.URLEncoder;
-import java.util.stream.Collectors;
 
 import lombok.NonNull;
 import lombok.SneakyThrows;
@@ -10,10 +9,29 @@ import lombok.SneakyThrows;
 public class HtmlUtil {
 
     public static String escapeHtml(@NonNull String str) {
-        return str
-            .codePoints()
-            .mapToObj(c -> c > 127 || "\"'<>&".indexOf(c) != -1 ? "&#" + c + ";" : new String(Character.toChars(c)))
-            .collect(Collectors.joining());
+        return escapeHtml(str, new StringBuilder(str.length() + 16)).toString();
+    }
+
+    /**
+     * Appends the escaped string to the builder, so templates can escape straight
+     * into their output.
+     */
+    public static StringBuilder escapeHtml(@NonNull String str, @NonNull StringBuilder sb) {
+        for (int i = 0; i < str.length(); i++) {
+            int c = str.codePointAt(i);
+
+            if ((c > 127) || ("\"'<>&".indexOf(c) != -1)) {
+                sb.append("&#").append(c).append(';');
+            } else {
+                sb.append((char) c);
+            }
+
+            if (Character.isSupplementaryCodePoint(c)) {
+                i++;
+            }
+        }
+
+        return sb;
     }
 
     @SneakyThrows
@@ -0,0 +1,14 @@
+package co.casterlabs.mimoto.util;
+
+/**
+ * Thrown when work gets shed because we're too busy to do it in time, this
+ * should end up as a 503.
+ */
+public class ServiceOverloadedException extends RuntimeException {
+    private static final long serialVersionUID = -2718034577036470953L;
+
+    public ServiceOverloadedException(String message) {
+        super(message);
+    }
+
+}
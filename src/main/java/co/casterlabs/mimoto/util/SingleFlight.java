@@ -0,0 +1,87 @@
+package co.casterlabs.mimoto.util;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+import lombok.NonNull;
+
+/**
+ * Collapses concurrent calls for the same key into one. The first caller does
+ * the work, anyone who shows up while it's in flight waits for and shares its
+ * result. Nothing is kept once the call finishes, so this never serves anything
+ * staler than a regular call would.
+ */
+public class SingleFlight<K, V> {
+    private final Map<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+
+    public V run(@NonNull K key, @NonNull Supplier<V> loader) {
+        CompletableFuture<V> ours = new CompletableFuture<>();
+        CompletableFuture<V> theirs = this.inFlight.putIfAbsent(key, ours);
+
+        if (theirs != null) {
+            try {
+                return theirs.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                } else {
+                    throw e;
+                }
+            }
+        }
+
+        try {
+            V result = loader.get();
+
+            ours.complete(result);
+            return result;
+        } catch (Throwable t) {
+            ours.completeExceptionally(t);
+            throw t;
+        } finally {
+            this.inFlight.remove(key, ours);
+        }
+    }
+
+    /**
+     * Same as {@link #run(Object, Supplier)}, but for loaders that are already
+     * async. Nobody blocks, followers just get the leader's future.
+     */
+    public CompletableFuture<V> runAsync(@NonNull K key, @NonNull Supplier<CompletableFuture<V>> loader) {
+        CompletableFuture<V> ours = new CompletableFuture<>();
+        CompletableFuture<V> theirs = this.inFlight.putIfAbsent(key, ours);
+
+        if (theirs != null) {
+            return theirs;
+        }
+
+        CompletableFuture<V> future;
+
+        try {
+            future = loader.get();
+        } catch (Throwable t) {
+            future = new CompletableFuture<>();
+            future.completeExceptionally(t);
+        }
+
+        future.whenComplete((result, t) -> {
+            this.inFlight.remove(key, ours);
+
+            if (t == null) {
+                ours.complete(result);
+            } else {
+                ours.completeExceptionally(t);
+            }
+        });
+
+        return ours;
+    }
+
+    public int getInFlight() {
+        return this.inFlight.size();
+    }
+
+}
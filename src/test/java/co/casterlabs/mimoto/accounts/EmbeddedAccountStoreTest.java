@@ -0,0 +1,195 @@
+package co.casterlabs.mimoto.accounts;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Collections;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class EmbeddedAccountStoreTest {
+    private File directory;
+    private File file;
+    private EmbeddedAccountStore store;
+
+    @BeforeEach
+    public void setup() throws IOException {
+        this.directory = Files.createTempDirectory("mimoto-accounts").toFile();
+        this.file = new File(this.directory, "accounts.log");
+        this.store = new EmbeddedAccountStore(this.file);
+    }
+
+    @AfterEach
+    public void teardown() {
+        this.store.close();
+
+        for (File child : this.directory.listFiles()) {
+            child.delete();
+        }
+        this.directory.delete();
+    }
+
+    private void reopen() throws IOException {
+        this.store.close();
+        this.store = new EmbeddedAccountStore(this.file);
+    }
+
+    @Test
+    public void roundTripsAndSurvivesReopen() throws IOException {
+        Account account = account("a1", "one@casterlabs.co");
+        account.setEmailVerified(true);
+        account.setPasswordChangedAt(1234);
+
+        this.store.upsert(account);
+        this.store.update("a1", Collections.singletonMap("name", "renamed"));
+
+        this.reopen();
+
+        Account loaded = this.store.findById("a1");
+        assertNotNull(loaded);
+        assertEquals("renamed", loaded.getName());
+        assertTrue(loaded.isEmailVerified());
+        assertEquals(1234, loaded.getPasswordChangedAt());
+        assertEquals("a1", this.store.findByEmail("one@casterlabs.co").getAccountId());
+        assertEquals("a1", this.store.findPrincipalById("a1").getAccountId());
+
+        assertNull(this.store.findById("missing"));
+        assertNull(this.store.findByEmail("missing@casterlabs.co"));
+    }
+
+    @Test
+    public void truncatesAtTornRecord() throws IOException {
+        this.store.upsert(account("a1", "one@casterlabs.co"));
+        this.store.upsert(account("a2", "two@casterlabs.co"));
+        this.store.upsert(account("a3", "three@casterlabs.co"));
+        this.store.close();
+
+        // Flip a byte in the body of the last record so its checksum fails.
+        try (RandomAccessFile raf = new RandomAccessFile(this.file, "rw")) {
+            int position = 0;
+
+            for (int i = 0; i < 2; i++) {
+                raf.seek(position);
+                position += 8 + raf.readInt();
+            }
+
+            raf.seek(position + 8 + 10);
+            int b = raf.read();
+            raf.seek(position + 8 + 10);
+            raf.write(b ^ 0xFF);
+        }
+
+        this.store = new EmbeddedAccountStore(this.file);
+
+        assertNotNull(this.store.findById("a1"));
+        assertNotNull(this.store.findById("a2"));
+        assertNull(this.store.findById("a3"));
+        assertNull(this.store.findByEmail("three@casterlabs.co"));
+
+        // New writes overwrite the torn record and survive another reopen.
+        this.store.upsert(account("a4", "four@casterlabs.co"));
+        this.reopen();
+
+        assertNotNull(this.store.findById("a2"));
+        assertNotNull(this.store.findById("a4"));
+        assertNull(this.store.findById("a3"));
+    }
+
+    @Test
+    public void compactionKeepsLatestVersions() throws IOException {
+        int accounts = 50;
+        int updates = 400; // Comfortably over the garbage threshold.
+
+        for (int i = 0; i < accounts; i++) {
+            this.store.upsert(account("a" + i, i + "@casterlabs.co"));
+        }
+
+        for (int round = 0; round < updates; round++) {
+            for (int i = 0; i < accounts; i++) {
+                this.store.update("a" + i, Collections.singletonMap("name", padded("round " + round)));
+            }
+        }
+
+        long before = this.file.length();
+        this.store.compactIfNeeded();
+        assertTrue(this.file.length() < before, "compaction should shrink the log");
+
+        String latest = padded("round " + (updates - 1));
+
+        for (int i = 0; i < accounts; i++) {
+            assertEquals(latest, this.store.findById("a" + i).getName());
+        }
+
+        // And the compacted log is a valid log.
+        this.store.update("a0", Collections.singletonMap("name", "after"));
+        this.reopen();
+
+        assertEquals("after", this.store.findById("a0").getName());
+
+        for (int i = 1; i < accounts; i++) {
+            assertEquals(latest, this.store.findById("a" + i).getName());
+            assertEquals("a" + i, this.store.findByEmail(i + "@casterlabs.co").getAccountId());
+        }
+    }
+
+    @Test
+    public void emailChangesMoveTheIndex() throws IOException {
+        this.store.upsert(account("a1", "old@casterlabs.co"));
+        this.store.update("a1", Collections.singletonMap("email", "new@casterlabs.co"));
+
+        assertNull(this.store.findByEmail("old@casterlabs.co"));
+        assertEquals("a1", this.store.findByEmail("new@casterlabs.co").getAccountId());
+
+        // The old email is free again.
+        this.store.upsert(account("a2", "old@casterlabs.co"));
+        assertEquals("a2", this.store.findByEmail("old@casterlabs.co").getAccountId());
+
+        this.reopen();
+
+        assertEquals("a1", this.store.findByEmail("new@casterlabs.co").getAccountId());
+        assertEquals("a2", this.store.findByEmail("old@casterlabs.co").getAccountId());
+    }
+
+    @Test
+    public void rejectsDuplicateEmails() {
+        this.store.upsert(account("a1", "one@casterlabs.co"));
+        this.store.upsert(account("a2", "two@casterlabs.co"));
+
+        assertThrows(IllegalStateException.class, () -> this.store.upsert(account("a3", "one@casterlabs.co")));
+        assertThrows(IllegalStateException.class, () -> this.store.update("a2", Collections.singletonMap("email", "one@casterlabs.co")));
+
+        assertEquals("two@casterlabs.co", this.store.findById("a2").getEmail());
+    }
+
+    private static String padded(String name) {
+        StringBuilder sb = new StringBuilder(name);
+
+        while (sb.length() < 256) {
+            sb.append('.');
+        }
+
+        return sb.toString();
+    }
+
+    private static Account account(String id, String email) {
+        Account account = new Account();
+
+        account.setAccountId(id);
+        account.setEmail(email);
+        account.setPasswordHash("$2a$10$abcdefghijklmnopqrstuu5e3pE7.WZy3kDHbkS0fvHZ7bN0bJZVu");
+        account.setName(email.substring(0, email.indexOf('@')));
+        account.setCreationTimestamp(1_650_000_000_000L);
+
+        return account;
+    }
+
+}
@@ -0,0 +1,96 @@
+package co.casterlabs.mimoto.bench;
+
+import java.nio.ByteBuffer;
+
+import org.bson.BsonBinaryReader;
+import org.bson.BsonBinaryWriter;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.io.BasicOutputBuffer;
+import org.jongo.Mapper;
+import org.jongo.bson.Bson;
+import org.jongo.marshall.Unmarshaller;
+import org.jongo.marshall.jackson.JacksonMapper;
+
+import co.casterlabs.mimoto.accounts.Account;
+import co.casterlabs.mimoto.accounts.AccountCodec;
+
+/**
+ * Compares decoding an account document with our {@link AccountCodec} against
+ * the old Jongo/Jackson path. Both start from the same raw bytes that'd come
+ * off the wire. It lives with the tests so it stays out of the plugin jar, run
+ * it from the test classpath:
+ * 
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=co.casterlabs.mimoto.bench.AccountDecodeBenchmark -Dexec.args=[iterations]
+ * </pre>
+ */
+public class AccountDecodeBenchmark {
+    private static final int ROUNDS = 5;
+
+    private static volatile Object sink; // Keeps the JIT from throwing the work away.
+
+    public static void main(String[] args) {
+        int iterations = (args.length > 0) ? Integer.parseInt(args[0]) : 1_000_000;
+
+        byte[] bytes = encode(sampleAccount());
+
+        AccountCodec codec = new AccountCodec();
+        DecoderContext context = DecoderContext.builder().build();
+
+        Mapper mapper = new JacksonMapper.Builder().build();
+        Unmarshaller unmarshaller = mapper.getUnmarshaller();
+
+        System.out.printf("Decoding a %d byte account, %d iterations per round.\n", bytes.length, iterations);
+        System.out.println("round | codec ops/s | jongo ops/s");
+
+        for (int round = 1; round <= ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                try (BsonBinaryReader reader = new BsonBinaryReader(ByteBuffer.wrap(bytes))) {
+                    sink = codec.decode(reader, context);
+                }
+            }
+            long codecNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                sink = unmarshaller.unmarshall(Bson.createDocument(bytes), Account.class);
+            }
+            long jongoNanos = System.nanoTime() - start;
+
+            System.out.printf("%5d | %11.0f | %11.0f\n", round, opsPerSecond(iterations, codecNanos), opsPerSecond(iterations, jongoNanos));
+        }
+    }
+
+    private static double opsPerSecond(int iterations, long nanos) {
+        return iterations / (nanos / 1_000_000_000d);
+    }
+
+    private static byte[] encode(Account account) {
+        BasicOutputBuffer buffer = new BasicOutputBuffer();
+
+        try (BsonBinaryWriter writer = new BsonBinaryWriter(buffer)) {
+            new AccountCodec().encode(writer, account, EncoderContext.builder().build());
+        }
+
+        return buffer.toByteArray();
+    }
+
+    private static Account sampleAccount() {
+        Account account = new Account();
+
+        account.setAccountId("Yp3xC4cN1aWfQn0r8GkH2tZsLmVvBd7E");
+        account.setEmail("someone@casterlabs.co");
+        account.setPasswordHash("$2a$12$R9h/cIPz0gi.URNNX3kh2OPST9/PgBkqquzi.Ss7KIUgO2t0jWMUW");
+        account.setPasswordChangedAt(1_650_000_000_000L);
+        account.setName("someone");
+        account.setEmailVerified(true);
+        account.setCreationTimestamp(1_650_000_000_000L);
+        account.setEmailVerificationId("");
+        account.setPasswordResetRequestId("");
+
+        return account;
+    }
+
+}
@@ -0,0 +1,80 @@
+package co.casterlabs.mimoto.bench;
+
+import java.util.regex.Pattern;
+
+import co.casterlabs.mimoto.Mimoto;
+import co.casterlabs.mimoto.util.EmailValidator;
+
+/**
+ * Compares {@link EmailValidator} against a precompiled
+ * {@link Mimoto#EMAIL_REGEX}, on a normal address and on the kind of long
+ * garbage that makes the regex backtrack. Run it from the test classpath:
+ * 
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=co.casterlabs.mimoto.bench.EmailValidatorBenchmark -Dexec.args=[iterations]
+ * </pre>
+ */
+public class EmailValidatorBenchmark {
+    private static final int ROUNDS = 5;
+
+    private static volatile boolean sink; // Keeps the JIT from throwing the work away.
+
+    public static void main(String[] args) {
+        int iterations = (args.length > 0) ? Integer.parseInt(args[0]) : 1_000_000;
+
+        Pattern pattern = Pattern.compile(Mimoto.EMAIL_REGEX);
+
+        String[][] inputs = {
+                {
+                        "valid", "first.last@sub.casterlabs.co"
+                },
+                {
+                        "garbage", "a@" + repeat("a-", 60) + "!" // Backtracks through every label split.
+                },
+        };
+
+        for (String[] input : inputs) {
+            String name = input[0];
+            String email = input[1];
+
+            // The garbage can be slow enough with the regex that we need way fewer rounds.
+            int regexIterations = pattern.matcher(email).matches() ? iterations : Math.max(1, iterations / 1000);
+
+            System.out.printf("%s (%d chars), %d iterations per round (%d for the regex).\n", name, email.length(), iterations, regexIterations);
+            System.out.println("round | validator ops/s | regex ops/s");
+
+            for (int round = 1; round <= ROUNDS; round++) {
+                long start = System.nanoTime();
+                for (int i = 0; i < iterations; i++) {
+                    sink = EmailValidator.isValid(email);
+                }
+                long validatorNanos = System.nanoTime() - start;
+
+                start = System.nanoTime();
+                for (int i = 0; i < regexIterations; i++) {
+                    sink = pattern.matcher(email).matches();
+                }
+                long regexNanos = System.nanoTime() - start;
+
+                System.out.printf("%5d | %15.0f | %11.0f\n", round, opsPerSecond(iterations, validatorNanos), opsPerSecond(regexIterations, regexNanos));
+            }
+
+            System.out.println();
+        }
+    }
+
+    private static double opsPerSecond(int iterations, long nanos) {
+        return iterations / (nanos / 1_000_000_000d);
+    }
+
+    private static String repeat(String str, int count) {
+        StringBuilder sb = new StringBuilder(str.length() * count);
+
+        for (int i = 0; i < count; i++) {
+            sb.append(str);
+        }
+
+        return sb.toString();
+    }
+
+}
@@ -0,0 +1,199 @@
+package co.casterlabs.mimoto.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import org.junit.jupiter.api.Test;
+
+import co.casterlabs.mimoto.Mimoto;
+
+/**
+ * Differential test for {@link EmailValidator}, it has to agree with
+ * {@link Mimoto#EMAIL_REGEX} on every input up to the length cap. Runs a fixed
+ * set of edge cases and then random inputs built from the chars that matter to
+ * the grammar. The seed is fixed so a failure can be reproduced, bump
+ * RANDOM_INPUTS locally for a longer soak.
+ */
+public class EmailValidatorTest {
+    private static final int RANDOM_INPUTS = 200_000;
+    private static final long SEED = 0x6d696d6f746fL;
+
+    private static final Pattern EMAIL_PATTERN = Pattern.compile(Mimoto.EMAIL_REGEX);
+
+    // Weighted towards the chars the grammar cares about.
+    private static final String ALPHABET = "aaaaazzz00099---...@@\"\"\\\\[[]]::  \t\r\n\u0000\u0001\u007f\u0080é!#$%&'*+/=?^_`{|}~Z()<>,;";
+
+    private static final String[] FRAGMENTS = {
+            "a", "z9", "user", "first.last", "-", ".", "..", "@", "\"", "\\", "\\\"", "\\ ", " ", "\t", "[", "]",
+            "casterlabs.co", "a-b", "xn--p1ai", "0", "1", "01", "25", "255", "256", "199", "1.2.3.", "127.0.0.1", ":", "ipv6:", "tag-:", "A",
+    };
+
+    private static final List<String> EDGE_CASES = Arrays.asList(
+        "someone@casterlabs.co",
+        "first.last@sub.casterlabs.co",
+        "x@y.z",
+        "a@b",
+        "@casterlabs.co",
+        "someone@",
+        "Someone@casterlabs.co",
+        "someone@Casterlabs.co",
+        ".someone@casterlabs.co",
+        "someone.@casterlabs.co",
+        "some..one@casterlabs.co",
+        "!#$%&'*+/=?^_`{|}~-@casterlabs.co",
+        "a@-casterlabs.co",
+        "a@casterlabs-.co",
+        "a@caster--labs.co",
+        "a@casterlabs.co.",
+        "a@.casterlabs.co",
+        "a@casterlabs..co",
+        "\"\"@casterlabs.co",
+        "\"quoted@with spaces? no\"@casterlabs.co",
+        "\"quoted\\\"escape\"@casterlabs.co",
+        "\"tab\\\there\"@casterlabs.co",
+        "\"bare\ttab\"@casterlabs.co",
+        "\"lone\\\"@casterlabs.co",
+        "\"unclosed@casterlabs.co",
+        "\"a\"b@casterlabs.co",
+        "a@[127.0.0.1]",
+        "a@[255.255.255.255]",
+        "a@[256.0.0.1]",
+        "a@[01.0.0.1]",
+        "a@[1.2.3]",
+        "a@[1.2.3.4.5]",
+        "a@[1.2.3.04]",
+        "a@[1.2.3.ipv6:2001:db8::1]",
+        "a@[1.2.3.tag:]",
+        "a@[1.2.3.-:x]",
+        "a@[1.2.3.tag-:x]",
+        "a@[1.2.3.4:x]",
+        "a@[1.2.3.256:x]",
+        "a@[1.2.3.tag:x]]",
+        "a@[1.2.3.tag:\\ ]",
+        "a@[1.2.3.tag: ]",
+        "a@[1.2.3.tag:\\\\ ]",
+        "a@[1.2.3.tag:\\  ]",
+        "a@[1.2.3.tag:x\\]",
+        "a@[1.2.3.4]x",
+        "a@[1.2.3.4",
+        "a@[]",
+        "a@[",
+        ""
+    );
+
+    @Test
+    public void edgeCasesAgreeWithTheRegex() {
+        int accepted = 0;
+
+        for (String input : EDGE_CASES) {
+            accepted += check(input) ? 1 : 0;
+        }
+
+        assertTrue(accepted > 0, "None of the edge cases were valid.");
+    }
+
+    @Test
+    public void randomInputsAgreeWithTheRegex() {
+        Random random = new Random(SEED);
+        int accepted = 0;
+
+        for (int i = 0; i < RANDOM_INPUTS; i++) {
+            accepted += check(randomInput(random)) ? 1 : 0;
+        }
+
+        // Otherwise the generator is only exercising the reject paths.
+        assertTrue(accepted > 0, "None of the random inputs were valid.");
+    }
+
+    @Test
+    public void rejectsOverTheCap() {
+        // Anything over the cap is always rejected, even if the regex would take it.
+        String tooLong = repeat('a', EmailValidator.MAX_LENGTH) + "@casterlabs.co";
+
+        assertTrue(EMAIL_PATTERN.matcher(tooLong).matches());
+        assertFalse(EmailValidator.isValid(tooLong));
+    }
+
+    private static boolean check(String input) {
+        boolean expected = EMAIL_PATTERN.matcher(input).matches();
+        boolean actual = EmailValidator.isValid(input);
+
+        assertEquals(expected, actual, "Disagreed with the regex on " + escape(input));
+
+        return actual;
+    }
+
+    /**
+     * Mostly shaped like an email so we get past the local part often enough to
+     * exercise the domain rules.
+     */
+    private static String randomInput(Random random) {
+        StringBuilder sb = new StringBuilder();
+
+        if (random.nextInt(3) == 0) {
+            sb.append('"');
+            appendRandom(sb, random, random.nextInt(6));
+            sb.append('"');
+        } else {
+            appendRandom(sb, random, 1 + random.nextInt(6));
+        }
+
+        if (random.nextInt(10) != 0) {
+            sb.append('@');
+        }
+
+        switch (random.nextInt(3)) {
+            case 0:
+                sb.append('[');
+                for (int i = 0; i < 3; i++) {
+                    sb.append(random.nextInt(300)).append('.');
+                }
+                appendRandom(sb, random, random.nextInt(4));
+                sb.append(']');
+                break;
+
+            default:
+                appendRandom(sb, random, 1 + random.nextInt(6));
+                break;
+        }
+
+        return (sb.length() > EmailValidator.MAX_LENGTH) ? sb.substring(0, EmailValidator.MAX_LENGTH) : sb.toString();
+    }
+
+    private static void appendRandom(StringBuilder sb, Random random, int pieces) {
+        for (int i = 0; i < pieces; i++) {
+            if (random.nextBoolean()) {
+                sb.append(FRAGMENTS[random.nextInt(FRAGMENTS.length)]);
+            } else {
+                sb.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+            }
+        }
+    }
+
+    private static String repeat(char c, int count) {
+        char[] chars = new char[count];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+
+    private static String escape(String input) {
+        StringBuilder sb = new StringBuilder("\"");
+
+        for (char c : input.toCharArray()) {
+            if ((c < 0x20) || (c > 0x7e)) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+
+        return sb.append('"').toString();
+    }
+
+}